@@ -0,0 +1,192 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.agent.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.javaflow.spi.ClassHeaderReader;
+import org.apache.commons.javaflow.spi.FastByteArrayOutputStream;
+import org.apache.commons.javaflow.spi.ResourceLoader;
+
+/**
+ * Fingerprints of the classes the instrumentation result of a class depends on, 
+ * as seen by a single class loader. Continuable methods of a class are resolved 
+ * from its super-classes and interfaces, continuable methods of the callees 
+ * from their owners (and super types of owners), and continuable annotations 
+ * from meta-annotations, so the fingerprint covers the shapes (super types, 
+ * annotations and method headers) of all classes referenced by the class and, 
+ * transitively, of their super types and annotation types. A missing class 
+ * contributes to the fingerprint as well.
+ * 
+ * Shapes are read once per class loader and kept for its lifetime, classes 
+ * are not expected to change while they are visible to the loader.
+ */
+class ClassDependencies {
+    private final ResourceLoader resourceLoader;
+    private final ConcurrentMap<String, Shape> shapes = new ConcurrentHashMap<String, Shape>();
+    
+    ClassDependencies(ResourceLoader resourceLoader) {
+        this.resourceLoader = resourceLoader;
+    }
+    
+    /**
+     * @return digest of the shapes of all classes the instrumentation of the class 
+     * with the given bytes depends on, the class itself is not included
+     */
+    byte[] fingerprintOf(byte[] classfileBuffer) {
+        ClassHeaderReader header = new ClassHeaderReader(classfileBuffer);
+        String className = header.getClassName();
+        
+        Deque<String> pending = new ArrayDeque<String>(header.getReferencedClasses());
+        addAnnotationTypes(pending, header.getClassAnnotations());
+        addAnnotationTypes(pending, header.getMethodAnnotations());
+        
+        // Sorted, so the fingerprint doesn't depend on the order of traversal
+        Map<String, Shape> dependencies = new TreeMap<String, Shape>();
+        while (!pending.isEmpty()) {
+            String dependency = pending.poll();
+            if (dependency.equals(className) || dependencies.containsKey(dependency)) {
+                continue;
+            }
+            Shape shape = shapeOf(dependency);
+            dependencies.put(dependency, shape);
+            pending.addAll(shape.dependencies);
+        }
+        
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String, Shape> dependency : dependencies.entrySet()) {
+            digest.update(utf8(dependency.getKey()));
+            digest.update((byte)0);
+            digest.update(dependency.getValue().digest);
+        }
+        return digest.digest();
+    }
+    
+    private Shape shapeOf(String className) {
+        Shape result = shapes.get(className);
+        if (null == result) {
+            result = readShape(className);
+            Shape previous = shapes.putIfAbsent(className, result);
+            if (null != previous) {
+                result = previous;
+            }
+        }
+        return result;
+    }
+    
+    private Shape readShape(String className) {
+        ClassHeaderReader header;
+        try {
+            header = new ClassHeaderReader(readClassFile(className));
+        } catch (IOException ex) {
+            return MISSING;
+        } catch (RuntimeException ex) {
+            // Malformed class file, treated as missing
+            return MISSING;
+        }
+        
+        StringBuilder shape = new StringBuilder();
+        shape.append(header.getAccess()).append(' ').append(header.getSuperName());
+        
+        Deque<String> dependencies = new ArrayDeque<String>();
+        if (null != header.getSuperName()) {
+            dependencies.add(header.getSuperName());
+        }
+        for (String interfaceName : header.getInterfaces()) {
+            shape.append(' ').append(interfaceName);
+            dependencies.add(interfaceName);
+        }
+        Set<String> classAnnotations = header.getClassAnnotations();
+        for (String annotation : sorted(classAnnotations)) {
+            shape.append(" @").append(annotation);
+        }
+        for (String method : sorted(header.getMethodHeaders())) {
+            shape.append('\n').append(method);
+        }
+        addAnnotationTypes(dependencies, classAnnotations);
+        addAnnotationTypes(dependencies, header.getMethodAnnotations());
+        return new Shape(newDigest().digest(utf8(shape.toString())), dependencies);
+    }
+    
+    private byte[] readClassFile(String className) throws IOException {
+        InputStream in = resourceLoader.getResourceAsStream(className + ".class");
+        try {
+            FastByteArrayOutputStream out = new FastByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static void addAnnotationTypes(Collection<String> target, Collection<String> annotationDescriptors) {
+        for (String descriptor : annotationDescriptors) {
+            if (descriptor.length() > 2 && descriptor.charAt(0) == 'L' && descriptor.endsWith(";")) {
+                target.add(descriptor.substring(1, descriptor.length() - 1));
+            }
+        }
+    }
+    
+    private static String[] sorted(Collection<String> values) {
+        String[] result = values.toArray(new String[values.size()]);
+        Arrays.sort(result);
+        return result;
+    }
+    
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    private static final class Shape {
+        final byte[] digest;
+        final Collection<String> dependencies;
+        
+        Shape(byte[] digest, Collection<String> dependencies) {
+            this.digest = digest;
+            this.dependencies = dependencies;
+        }
+    }
+    
+    private static final Shape MISSING = new Shape(new byte[0], Arrays.<String>asList());
+}
@@ -15,6 +15,7 @@
  */
 package org.apache.commons.javaflow.agent.common;
 
+import java.io.File;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.security.ProtectionDomain;
@@ -34,6 +35,7 @@ public class ConfigurableClassFileTransformer implements ClassFileTransformer {
     private final ClassLoader systemClassLoader = ClassLoader.getSystemClassLoader();
     
     private final ResourceTransformationFactory resourceTransformationFactory;
+    private final TransformedClassCache transformedClassCache;
     
     private final Cache<ClassLoader, MorphingResourceLoader> cachedResourceLoaders = 
             new Cache<ClassLoader, MorphingResourceLoader>() {
@@ -46,9 +48,33 @@ public class ConfigurableClassFileTransformer implements ClassFileTransformer {
                 }
             };    
             
+    private final Cache<ClassLoader, ClassDependencies> cachedClassDependencies = 
+            new Cache<ClassLoader, ClassDependencies>() {
+                @Override
+                protected ClassDependencies createValue(ClassLoader classLoader) {
+                    return new ClassDependencies(new ClasspathResourceLoader(classLoader));
+                }
+            };
+    
     
     public ConfigurableClassFileTransformer(ResourceTransformationFactory resourceTransformationFactory) {
+        this(resourceTransformationFactory, "");
+    }
+    
+    /**
+     * @param resourceTransformationFactory factory of the instrumenters
+     * @param options options of the instrumenters that affect the result, used as a part 
+     * of the key in the transformed class cache (enabled with 
+     * <code>-Dnet.tascalate.javaflow.agent.cache-dir=&lt;directory&gt;</code>)
+     */
+    protected ConfigurableClassFileTransformer(ResourceTransformationFactory resourceTransformationFactory, 
+                                               String options) {
         this.resourceTransformationFactory = resourceTransformationFactory;
+        this.transformedClassCache = null == CACHE_DIRECTORY ? null :
+            new TransformedClassCache(
+                new File(CACHE_DIRECTORY), 
+                TransformedClassCache.versionOf(resourceTransformationFactory.getClass()) + '/' + options
+            );
     }
         
     // @Override
@@ -65,6 +91,18 @@ public class ConfigurableClassFileTransformer implements ClassFileTransformer {
             return null;
         }
 
+        String cacheKey = null;
+        byte[] dependencies = null;
+        if (null != transformedClassCache) {
+            cacheKey = transformedClassCache.keyOf(classfileBuffer);
+            dependencies = cachedClassDependencies.get(getSafeClassLoader(classLoader))
+                                                  .fingerprintOf(classfileBuffer);
+            byte[] cached = transformedClassCache.get(cacheKey, dependencies);
+            if (null != cached) {
+                return cached == TransformedClassCache.UNCHANGED ? null : cached;
+            }
+        }
+        
         // Ensure classLoader is not null (null for boot class loader)
         MorphingResourceLoader resourceLoader = cachedResourceLoaders.get(getSafeClassLoader(classLoader));
 
@@ -77,7 +115,11 @@ public class ConfigurableClassFileTransformer implements ClassFileTransformer {
                 resourceLoader.withReplacement(className + ".class", classfileBuffer)
             );
             try {
-                return transformer.transform(classfileBuffer, className);
+                byte[] result = transformer.transform(classfileBuffer, className);
+                if (null != cacheKey) {
+                    transformedClassCache.put(cacheKey, dependencies, result);
+                }
+                return result;
             } finally {
                 transformer.release();
             }
@@ -121,6 +163,14 @@ public class ConfigurableClassFileTransformer implements ClassFileTransformer {
         }
     }
 
+    /**
+     * Directory of the on-disk cache of transformation results, the cache is disabled 
+     * when the property is not set. Entries are keyed by the class bytes and the 
+     * instrumenter version, and are re-validated against the classes it depends on.
+     */
+    private static final String CACHE_DIRECTORY = 
+        System.getProperty("net.tascalate.javaflow.agent.cache-dir");
+
     private static final boolean VERBOSE_ERROR_REPORTS = 
         Boolean.getBoolean("org.apache.commons.javaflow.instrumentation.verbose");
 }
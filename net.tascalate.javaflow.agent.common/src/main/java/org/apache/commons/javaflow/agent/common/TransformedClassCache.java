@@ -0,0 +1,196 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.agent.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * On-disk cache of the instrumentation results. Entries are keyed by a digest of the 
+ * original class bytes and the instrumenter version, so the cache is invalidated 
+ * whenever the class or the instrumenter changes. Both outcomes are stored: 
+ * transformed bytecode and the "left as is" verdict (no bytecode).
+ * 
+ * The result of the instrumentation depends on the classes used by the class as well, 
+ * so every entry starts with the fingerprint of these dependencies (see 
+ * {@link ClassDependencies}) and is used only when the fingerprint is the same.
+ */
+class TransformedClassCache {
+    private static final Logger log = LoggerFactory.getLogger(TransformedClassCache.class);
+    
+    static final byte[] UNCHANGED = new byte[0];
+    
+    private final File directory;
+    private final byte[] version;
+    
+    TransformedClassCache(File directory, String version) {
+        this.directory = directory;
+        this.version = utf8(ENTRY_FORMAT + '/' + version);
+    }
+    
+    /**
+     * @return cached bytecode, {@link #UNCHANGED} if the class was left as is, 
+     * or null if there is no entry for the class or it was created with 
+     * different dependencies
+     */
+    byte[] get(String key, byte[] dependencies) {
+        File file = fileOf(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            byte[] entry = readFully(file);
+            if (entry.length < dependencies.length || 
+                !Arrays.equals(dependencies, Arrays.copyOf(entry, dependencies.length))) {
+                // Stale entry, overwritten with the new result
+                return null;
+            }
+            return entry.length == dependencies.length ? 
+                UNCHANGED : Arrays.copyOfRange(entry, dependencies.length, entry.length);
+        } catch (IOException ex) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to read cached class " + file + ": " + ex.getMessage());
+            }
+            return null;
+        }
+    }
+    
+    void put(String key, byte[] dependencies, byte[] bytecode) {
+        File file = fileOf(key);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to create cache directory " + parent);
+            }
+            return;
+        }
+        File temp = null;
+        try {
+            // Write-then-rename, so concurrent JVMs never observe partial entries
+            temp = File.createTempFile(file.getName(), ".tmp", parent);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(dependencies);
+                if (null != bytecode) {
+                    out.write(bytecode);
+                }
+            } finally {
+                out.close();
+            }
+            if (temp.renameTo(file)) {
+                temp = null;
+            }
+        } catch (IOException ex) {
+            if (log.isWarnEnabled()) {
+                log.warn("Unable to write cached class " + file + ": " + ex.getMessage());
+            }
+        } finally {
+            if (null != temp) {
+                temp.delete();
+            }
+        }
+    }
+    
+    String keyOf(byte[] classfileBuffer) {
+        MessageDigest digest = newDigest();
+        digest.update(version);
+        digest.update((byte)0);
+        digest.update(classfileBuffer);
+        byte[] hash = digest.digest();
+        StringBuilder result = new StringBuilder(hash.length * 2);
+        for (byte b : hash) {
+            result.append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+        }
+        return result.toString();
+    }
+    
+    private File fileOf(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key.substring(2) + ".class");
+    }
+    
+    static String versionOf(Class<?> instrumenterClass) {
+        StringBuilder result = new StringBuilder(instrumenterClass.getName());
+        Package pkg = instrumenterClass.getPackage();
+        String implementationVersion = null == pkg ? null : pkg.getImplementationVersion();
+        if (null != implementationVersion) {
+            result.append('@').append(implementationVersion);
+        }
+        // Snapshots are re-built with the same version, so the archive timestamp is added
+        try {
+            CodeSource codeSource = instrumenterClass.getProtectionDomain().getCodeSource();
+            URL location = null == codeSource ? null : codeSource.getLocation();
+            if (null != location && "file".equals(location.getProtocol())) {
+                File archive = new File(location.toURI());
+                result.append('@').append(archive.lastModified()).append(':').append(archive.length());
+            }
+        } catch (Exception ex) {
+            // Ignore, version and class name are good enough
+        }
+        return result.toString();
+    }
+    
+    private static byte[] readFully(File file) throws IOException {
+        long length = file.length();
+        byte[] result = new byte[(int)length];
+        InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < result.length) {
+                int count = in.read(result, offset, result.length - offset);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+                offset += count;
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+    
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    private static byte[] utf8(String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    // Changed whenever the layout of entries is changed
+    private static final String ENTRY_FORMAT = "2";
+    
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
@@ -20,6 +20,10 @@ import org.apache.commons.javaflow.providers.core.ContinuableClassTransformation
 
 class ContinuableClassBytecodeTransformer extends ConfigurableClassFileTransformer {
     public ContinuableClassBytecodeTransformer() {
-        super(new ContinuableClassTransformationFactory());
+        this(new ContinuableClassTransformationFactory());
+    }
+    
+    ContinuableClassBytecodeTransformer(ContinuableClassTransformationFactory factory) {
+        super(factory, factory.toString());
     }
 }
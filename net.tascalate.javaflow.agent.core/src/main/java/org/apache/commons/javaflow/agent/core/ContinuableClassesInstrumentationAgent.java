@@ -23,16 +23,24 @@ import java.util.HashSet;
 import java.util.Set;
 
 import org.apache.commons.javaflow.agent.common.ConfigurableClassFileTransformer;
+import org.apache.commons.javaflow.providers.core.ContinuableClassTransformationFactory;
 import org.apache.commons.javaflow.spi.InstrumentationUtils;
 
 import net.tascalate.instrument.agent.AbstractLambdaAwareInstrumentationAgent;
 
 public class ContinuableClassesInstrumentationAgent extends AbstractLambdaAwareInstrumentationAgent {
 
-    private final ClassFileTransformer continuableClassTransformer = new ContinuableClassBytecodeTransformer();
+    private final ClassFileTransformer continuableClassTransformer;
     
     protected ContinuableClassesInstrumentationAgent(String arguments, Instrumentation instrumentation) {
+        this(arguments, instrumentation, new ContinuableClassBytecodeTransformer());
+    }
+    
+    private ContinuableClassesInstrumentationAgent(String arguments, 
+                                                   Instrumentation instrumentation, 
+                                                   ClassFileTransformer continuableClassTransformer) {
         super(arguments, instrumentation);
+        this.continuableClassTransformer = continuableClassTransformer;
     }
 
     /**
@@ -62,7 +70,12 @@ public class ContinuableClassesInstrumentationAgent extends AbstractLambdaAwareI
      * @throws Exception
      */
     public static void agentmain(String args, Instrumentation instrumentation) throws Exception {
-        ContinuableClassesInstrumentationAgent agent = new ContinuableClassesInstrumentationAgent(args, instrumentation);
+        // Already loaded classes are re-transformed and re-transformation may not add 
+        // methods, so options that generate synthetic methods are disabled
+        ContinuableClassesInstrumentationAgent agent = new ContinuableClassesInstrumentationAgent(
+            args, instrumentation, 
+            new ContinuableClassBytecodeTransformer(new ContinuableClassTransformationFactory(false, false))
+        );
         agent.attachDefaultLambdaInstrumentationHook();
         Set<String> nonRetransformPackages = new HashSet<String>(BASE_OWN_PACKAGES);
         nonRetransformPackages.addAll(
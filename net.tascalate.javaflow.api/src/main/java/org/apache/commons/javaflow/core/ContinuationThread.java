@@ -0,0 +1,74 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.core;
+
+/**
+ * Thread that keeps the current continuation context in a plain field
+ * instead of a {@link ThreadLocal} / <code>ScopedValue</code>.
+ * <p>
+ * Every continuable method looks up the context on entry, so code 
+ * that runs continuations heavily may be executed by this kind of threads 
+ * to make the lookup cheaper. The field is used only when the system property
+ * <code>net.tascalate.javaflow.check-thread</code> is set to <code>true</code>,
+ * otherwise the regular lookup is used for all threads.
+ * 
+ * @see ContinuationThreadFactory
+ */
+public class ContinuationThread extends Thread implements ScopedContinuationExecutor {
+    
+    private StackRecorder stackRecorder;
+    
+    public ContinuationThread() {
+        super();
+    }
+
+    public ContinuationThread(Runnable target) {
+        super(target);
+    }
+
+    public ContinuationThread(String name) {
+        super(name);
+    }
+    
+    public ContinuationThread(Runnable target, String name) {
+        super(target, name);
+    }
+
+    public ContinuationThread(ThreadGroup group, Runnable target, String name) {
+        super(group, target, name);
+    }
+
+    public ContinuationThread(ThreadGroup group, Runnable target, String name, long stackSize) {
+        super(group, target, name, stackSize);
+    }
+
+    public final void runWith(StackRecorder stackRecorder, Runnable code) {
+        if (Thread.currentThread() != this) {
+            throw new IllegalStateException("Continuation may be run only by the current thread");
+        }
+        StackRecorder prevStackRecorder = this.stackRecorder;
+        this.stackRecorder = stackRecorder;
+        try {
+            code.run();
+        } finally {
+            this.stackRecorder = prevStackRecorder;
+        }
+    }
+
+    public final StackRecorder currentStackRecorder() {
+        return stackRecorder;
+    }
+}
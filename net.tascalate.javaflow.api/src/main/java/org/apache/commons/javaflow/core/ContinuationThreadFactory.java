@@ -0,0 +1,104 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.core;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link ThreadFactory} that creates {@link ContinuationThread}-s, 
+ * to be used with executors that run continuations.
+ * <p>
+ * Requires the system property <code>net.tascalate.javaflow.check-thread</code>
+ * to be set to <code>true</code>, see {@link ContinuationThread}.
+ */
+public class ContinuationThreadFactory implements ThreadFactory {
+    
+    private final ThreadGroup group;
+    private final String namePrefix;
+    private final boolean daemon;
+    private final AtomicLong threadNumber = new AtomicLong(0);
+
+    public ContinuationThreadFactory() {
+        this("continuation-");
+    }
+    
+    public ContinuationThreadFactory(String namePrefix) {
+        this(namePrefix, false);
+    }
+    
+    public ContinuationThreadFactory(String namePrefix, boolean daemon) {
+        this(Thread.currentThread().getThreadGroup(), namePrefix, daemon);
+    }
+    
+    public ContinuationThreadFactory(ThreadGroup group, String namePrefix, boolean daemon) {
+        if (null == namePrefix) {
+            throw new IllegalArgumentException("Name prefix may not be null");
+        }
+        this.group = group;
+        this.namePrefix = namePrefix;
+        this.daemon = daemon;
+    }
+
+    public Thread newThread(Runnable r) {
+        Thread t = new ContinuationThread(group, r, namePrefix + threadNumber.incrementAndGet(), 0);
+        if (t.isDaemon() != daemon) {
+            t.setDaemon(daemon);
+        }
+        if (t.getPriority() != Thread.NORM_PRIORITY) {
+            t.setPriority(Thread.NORM_PRIORITY);
+        }
+        return t;
+    }
+    
+    /**
+     * Creates a factory of virtual threads when the runtime supports them 
+     * (Java 21+), otherwise a factory of daemon {@link ContinuationThread}-s.
+     * <p>
+     * Virtual threads can't be subclassed, so the continuation context of virtual threads
+     * is never kept in a field. Starting from Java 25 (or Java 21+ with <code>--enable-preview</code>) 
+     * it is kept in <code>ScopedValue</code> that is cheap for virtual threads, 
+     * otherwise in {@link ThreadLocal}.
+     * 
+     * @param namePrefix prefix of thread names, followed by a sequence number 
+     * @return virtual threads factory if available, otherwise {@link ContinuationThreadFactory}
+     */
+    public static ThreadFactory ofVirtual(String namePrefix) {
+        ThreadFactory result = virtualThreadFactory(namePrefix);
+        return null != result ? result : new ContinuationThreadFactory(namePrefix, true);
+    }
+    
+    private static ThreadFactory virtualThreadFactory(String namePrefix) {
+        try {
+            // Thread.ofVirtual().name(namePrefix, 1).factory()
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtualClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtualClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 1L);
+            return (ThreadFactory)Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (NoSuchMethodException ex) {
+            // Java 18 or below
+            return null;
+        } catch (ClassNotFoundException ex) {
+            return null;
+        } catch (IllegalAccessException ex) {
+            return null;
+        } catch (InvocationTargetException ex) {
+            // Java 19-20 without --enable-preview
+            return null;
+        }
+    }
+}
@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2022 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -33,6 +33,17 @@ import org.slf4j.LoggerFactory;
 
 /**
  * Stack to store the frame information along the invocation trace.
+ * <p>
+ * Values of all primitive types share the single stack with the only index, 
+ * and the type of every value is kept in a parallel array of tags, so pop 
+ * operations verify the type of the top value without per-type counters.
+ * Operations on the stack are traced only when the system property
+ * <code>net.tascalate.javaflow.trace-stack</code> is set to <code>true</code>.
+ * <p>
+ * A copy of the stack shares underlying arrays with the original one (copy-on-write).
+ * Restoring the copy only reads shared arrays; they are copied on the first 
+ * modification, and only values that are not restored yet are copied. 
+ * So resuming a multi-shot continuation does not pay for copying the whole stack.
  *
  * @author <a href="mailto:tcurdt@apache.org">Torsten Curdt</a>
  * @author <a href="mailto:stephan@apache.org">Stephan Michels</a>
@@ -42,100 +53,96 @@ public class Stack implements Serializable {
 
     private static final Logger log = LoggerFactory.getLogger(Stack.class);
     private static final long serialVersionUID = 3L;
+    
+    private static final boolean TRACE = Boolean.getBoolean("net.tascalate.javaflow.trace-stack");
+    
+    // Tags of primitive values; ANY is used for values read from the serialized form
+    private static final byte ANY    = 0;
+    private static final byte INT    = 1;
+    private static final byte FLOAT  = 2;
+    private static final byte LONG   = 3;
+    private static final byte DOUBLE = 4;
 
     private long[] pstack;
+    private byte[] ptypes;
     private Object[] ostack;
     private Object[] rstack;
-    private int dTop, fTop, lTop, iTop, oTop, rTop;
+    private int pTop, oTop, rTop;
+    /** True if arrays may be used by another stack, i.e. must be copied before modification */
+    private transient boolean shared;
     protected Runnable runnable;
 
     Stack(Runnable pRunnable) {
         pstack = new long[16];
+        ptypes = new byte[16];
         ostack = new Object[8];
         rstack = new Object[4];
         runnable = pRunnable;
     }
 
     Stack(final Stack pParent) {
-        pstack = new long[pParent.pstack.length];
-        ostack = new Object[pParent.ostack.length];
-        rstack = new Object[pParent.rstack.length];
-        iTop = pParent.iTop;
-        fTop = pParent.fTop;
-        dTop = pParent.dTop;
-        lTop = pParent.lTop;
+        // Both stacks become copy-on-write: the parent may be modified as well
+        // (like single-shot continuation converted to multi-shot)
+        pParent.shared = true;
+        pstack = pParent.pstack;
+        ptypes = pParent.ptypes;
+        ostack = pParent.ostack;
+        rstack = pParent.rstack;
+        pTop = pParent.pTop;
         oTop = pParent.oTop;
         rTop = pParent.rTop;
-        System.arraycopy(pParent.pstack, 0, pstack, 0, pTop());
-        System.arraycopy(pParent.ostack, 0, ostack, 0, oTop);
-        System.arraycopy(pParent.rstack, 0, rstack, 0, rTop);
+        shared = true;
         runnable = pParent.runnable;
     }
 
     public final boolean hasDouble() {
-        return dTop > 0;
+        return hasPrimitive(DOUBLE);
     }
 
     public final double popDouble() {
-        if (dTop == 0) {
-            throw new EmptyStackException("pop double");
-        }
-
-        --dTop;
-        final double d = Double.longBitsToDouble(popPrimitive());
-        if (log.isDebugEnabled()) {
-            log.debug("pop double " + d + " " + getStats());
+        checkPrimitive(DOUBLE, "pop double");
+        final double d = Double.longBitsToDouble(pstack[--pTop]);
+        if (TRACE) {
+            trace("pop double", d);
         }
         return d;
     }
     
     public final boolean hasFloat() {
-        return fTop > 0;
+        return hasPrimitive(FLOAT);
     }
 
     public final float popFloat() {
-        if (fTop == 0) {
-            throw new EmptyStackException("pop float");
-        }
-
-        --fTop;
-        final float f = Float.intBitsToFloat((int)popPrimitive());
-        if (log.isDebugEnabled()) {
-            log.debug("pop float " + f + " " + getStats());
+        checkPrimitive(FLOAT, "pop float");
+        final float f = Float.intBitsToFloat((int)pstack[--pTop]);
+        if (TRACE) {
+            trace("pop float", f);
         }
         return f;
     }
     
     public final boolean hasLong() {
-        return lTop > 0;
+        return hasPrimitive(LONG);
     }
 
     public final long popLong() {
-        if (lTop == 0) {
-            throw new EmptyStackException("pop long");
-        }
-
-        --lTop;
-        final long l = popPrimitive();
-        if (log.isDebugEnabled()) {
-            log.debug("pop long " + l + " " + getStats());
+        checkPrimitive(LONG, "pop long");
+        final long l = pstack[--pTop];
+        if (TRACE) {
+            trace("pop long", l);
         }
         return l;
     }
 
     public final boolean hasInt() {
-        return iTop > 0;
+        return hasPrimitive(INT);
     }
 
     public final int popInt() {
-        if (iTop == 0) {
-            throw new EmptyStackException("pop int");
-        }
-
-        --iTop;
-        final int i = (int)popPrimitive();
-        if (log.isDebugEnabled()) {
-            log.debug("pop int " + i + " " + getStats());
+        checkPrimitive(INT, "pop int");
+        final int i = (int)pstack[--pTop];
+        if (TRACE) {
+            trace("pop int", i);
         }
         return i;
     }
@@ -150,12 +157,12 @@ public class Stack implements Serializable {
         }
 
         final Object o = ostack[--oTop];
-        ostack[oTop] = null; // avoid unnecessary reference to object
-
-        if (log.isDebugEnabled()) {
-            log.debug("pop object " + ReflectionUtils.descriptionOfObject(o) + " " + getStats());
+        if (!shared) {
+            ostack[oTop] = null; // avoid unnecessary reference to object
+        }
+        if (TRACE) {
+            trace("pop object", ReflectionUtils.descriptionOfObject(o));
         }
-
         return o;
     }
 
@@ -169,72 +176,63 @@ public class Stack implements Serializable {
         }
 
         final Object o = rstack[--rTop];
-        rstack[rTop] = null; // avoid unnecessary reference to object
-
-        if (log.isDebugEnabled()) {
-            log.debug("pop reference " + ReflectionUtils.descriptionOfObject(o) + " " + getStats());
+        if (!shared) {
+            rstack[rTop] = null; // avoid unnecessary reference to object
+        }
+        if (TRACE) {
+            trace("pop reference", ReflectionUtils.descriptionOfObject(o));
         }
-
         return o;
     }
 
     public final void pushDouble(double d) {
-        if (log.isDebugEnabled()) {
-            log.debug("push double " + d + " " + getStats());
+        if (TRACE) {
+            trace("push double", d);
         }
-
-        ensurePrimitivesStackSize();
-        pushPrimitive(Double.doubleToLongBits(d));
-        dTop++;
+        pushPrimitive(Double.doubleToLongBits(d), DOUBLE);
     }
 
     public final void pushFloat(float f) {
-        if (log.isDebugEnabled()) {
-            log.debug("push float " + f + " " + getStats());
+        if (TRACE) {
+            trace("push float", f);
         }
-        
-        ensurePrimitivesStackSize();
-        pushPrimitive(Float.floatToIntBits(f));
-        fTop++;
+        pushPrimitive(Float.floatToIntBits(f), FLOAT);
     }
     
     public final void pushLong(long l) {
-        if (log.isDebugEnabled()) {
-            log.debug("push long " + l + " " + getStats());
+        if (TRACE) {
+            trace("push long", l);
         }
-
-        ensurePrimitivesStackSize();
-        pushPrimitive(l);
-        lTop++;
+        pushPrimitive(l, LONG);
     }
 
     public final void pushInt(int i) {
-        if (log.isDebugEnabled()) {
-            log.debug("push int " + i + " " + getStats());
+        if (TRACE) {
+            trace("push int", i);
         }
-        ensurePrimitivesStackSize();
-        pushPrimitive(i);
-        iTop++;
+        pushPrimitive(i, INT);
     }
     
     public final void pushObject(Object o) {
-        if (log.isDebugEnabled()) {
-            log.debug("push object " + ReflectionUtils.descriptionOfObject(o) + " " + getStats());
+        if (TRACE) {
+            trace("push object", ReflectionUtils.descriptionOfObject(o));
+        }
+        if (shared) {
+            unshare();
         }
-
         if (oTop == ostack.length) {
-            Object[] hlp = new Object[Math.max(8, ostack.length * 2)];
-            System.arraycopy(ostack, 0, hlp, 0, ostack.length);
-            ostack = hlp;
+            growObjects(oTop + 1);
         }
         ostack[oTop++] = o;
     }
 
     public final void pushReference(Object o) {
-        if (log.isDebugEnabled()) {
-            log.debug("push reference " + ReflectionUtils.descriptionOfObject(o) + " " + getStats());
+        if (TRACE) {
+            trace("push reference", ReflectionUtils.descriptionOfObject(o));
+        }
+        if (shared) {
+            unshare();
         }
-
         if (rTop == rstack.length) {
             Object[] hlp = new Object[Math.max(8, rstack.length * 2)];
             System.arraycopy(rstack, 0, hlp, 0, rstack.length);
@@ -243,6 +241,132 @@ public class Stack implements Serializable {
         rstack[rTop++] = o;
     }
 
+    /**
+     * Ensures that the stack has room for the next <code>primitives</code> values
+     * of primitive types and <code>objects</code> object values. After this call
+     * exactly these values are added with <code>put*</code> methods that do 
+     * no checks. 
+     * <p>
+     * Used by the instrumented code to save the whole frame at once, 
+     * <code>reserveFrame</code>, <code>put*</code>, <code>requireFrame</code> and 
+     * <code>take*</code> methods are not intended to be used by applications.
+     * 
+     * @param primitives number of values of primitive types to be added
+     * @param objects number of object values to be added
+     */
+    public final void reserveFrame(int primitives, int objects) {
+        if (TRACE) {
+            trace("reserve frame", "p[" + primitives + "],o[" + objects + "]");
+        }
+        if (shared) {
+            unshare();
+        }
+        if (pTop + primitives > pstack.length) {
+            growPrimitives(pTop + primitives);
+        }
+        if (oTop + objects > ostack.length) {
+            growObjects(oTop + objects);
+        }
+    }
+    
+    public final void putDouble(double d) {
+        if (TRACE) {
+            trace("put double", d);
+        }
+        putPrimitive(Double.doubleToLongBits(d), DOUBLE);
+    }
+
+    public final void putFloat(float f) {
+        if (TRACE) {
+            trace("put float", f);
+        }
+        putPrimitive(Float.floatToIntBits(f), FLOAT);
+    }
+    
+    public final void putLong(long l) {
+        if (TRACE) {
+            trace("put long", l);
+        }
+        putPrimitive(l, LONG);
+    }
+
+    public final void putInt(int i) {
+        if (TRACE) {
+            trace("put int", i);
+        }
+        putPrimitive(i, INT);
+    }
+    
+    public final void putObject(Object o) {
+        if (TRACE) {
+            trace("put object", ReflectionUtils.descriptionOfObject(o));
+        }
+        ostack[oTop++] = o;
+    }
+    
+    /**
+     * Verifies that the stack has at least <code>primitives</code> values
+     * of primitive types and <code>objects</code> object values. After this call
+     * exactly these values are removed with <code>take*</code> methods that do 
+     * no checks. 
+     * <p>
+     * Used by the instrumented code to restore the whole frame at once.
+     * 
+     * @param primitives number of values of primitive types to be removed
+     * @param objects number of object values to be removed
+     */
+    public final void requireFrame(int primitives, int objects) {
+        if (TRACE) {
+            trace("require frame", "p[" + primitives + "],o[" + objects + "]");
+        }
+        if (pTop < primitives || oTop < objects) {
+            throw new EmptyStackException("restore frame");
+        }
+    }
+    
+    public final double takeDouble() {
+        final double d = Double.longBitsToDouble(pstack[--pTop]);
+        if (TRACE) {
+            trace("take double", d);
+        }
+        return d;
+    }
+    
+    public final float takeFloat() {
+        final float f = Float.intBitsToFloat((int)pstack[--pTop]);
+        if (TRACE) {
+            trace("take float", f);
+        }
+        return f;
+    }
+    
+    public final long takeLong() {
+        final long l = pstack[--pTop];
+        if (TRACE) {
+            trace("take long", l);
+        }
+        return l;
+    }
+    
+    public final int takeInt() {
+        final int i = (int)pstack[--pTop];
+        if (TRACE) {
+            trace("take int", i);
+        }
+        return i;
+    }
+    
+    public final Object takeObject() {
+        final Object o = ostack[--oTop];
+        if (!shared) {
+            ostack[oTop] = null; // avoid unnecessary reference to object
+        }
+        if (TRACE) {
+            trace("take object", ReflectionUtils.descriptionOfObject(o));
+        }
+        return o;
+    }
+
     public boolean isSerializable() {
         for (int i = 0; i < rTop; i++) {
             final Object r = rstack[i];
@@ -260,19 +384,16 @@ public class Stack implements Serializable {
     }
 
     public final boolean isEmpty() {
-        return iTop == 0 && lTop == 0 && dTop == 0 && fTop == 0 && oTop == 0 && rTop == 0;
+        return pTop == 0 && oTop == 0 && rTop == 0;
     }
 
     public final Runnable getRunnable() {
         return runnable;
     }
 
-    private String getStats() {
+    final String getStats() {
         final StringBuilder sb = new StringBuilder();
-        sb.append("i[").append(iTop).append("],");
-        sb.append("l[").append(lTop).append("],");
-        sb.append("d[").append(dTop).append("],");
-        sb.append("f[").append(fTop).append("],");
+        sb.append("p[").append(pTop).append("],");
         sb.append("o[").append(oTop).append("],");
         sb.append("r[").append(rTop).append("]");
         return sb.toString();
@@ -280,10 +401,7 @@ public class Stack implements Serializable {
 
     private String getContent() {
         final StringBuilder sb = new StringBuilder();
-        sb.append("i[").append(iTop).append("]\n");
-        sb.append("l[").append(lTop).append("]\n");
-        sb.append("d[").append(dTop).append("]\n");
-        sb.append("f[").append(fTop).append("]\n");
+        sb.append("p[").append(pTop).append("]\n");
         sb.append("o[").append(oTop).append("]\n");
         for (int i = 0; i < oTop; i++) {
             sb.append(' ').append(i).append(": ")
@@ -306,32 +424,91 @@ public class Stack implements Serializable {
         return getContent();
     }
     
-    private final int pTop() {
-        return dTop + fTop + lTop + iTop;
+    private void trace(String operation, Object value) {
+        if (log.isDebugEnabled()) {
+            log.debug(operation + " " + value + " " + getStats());
+        }
     }
     
-    private final void pushPrimitive(long value) {
-        pstack[pTop()] = value;
+    private final boolean hasPrimitive(byte type) {
+        if (pTop == 0) {
+            return false;
+        }
+        byte top = ptypes[pTop - 1];
+        return top == type || top == ANY;
     }
     
-    private final long popPrimitive() {
-        return pstack[pTop()];
+    private final void checkPrimitive(byte type, String operation) {
+        if (!hasPrimitive(type)) {
+            throw new EmptyStackException(operation);
+        }
     }
     
-    private final void ensurePrimitivesStackSize() {
-        if (pTop() == pstack.length) {
-            long[] hlp = new long[Math.max(8, pstack.length * 2)];
-            System.arraycopy(pstack, 0, hlp, 0, pstack.length);
-            pstack = hlp;
+    private final void pushPrimitive(long value, byte type) {
+        if (shared) {
+            unshare();
         }
+        if (pTop == pstack.length) {
+            growPrimitives(pTop + 1);
+        }
+        putPrimitive(value, type);
+    }
+    
+    private final void putPrimitive(long value, byte type) {
+        pstack[pTop] = value;
+        ptypes[pTop++] = type;
+    }
+    
+    private void unshare() {
+        // Only values below the top are copied, capacity is kept 
+        // since the stack is likely to be filled again up to the same size
+        long[] p = new long[pstack.length];
+        System.arraycopy(pstack, 0, p, 0, pTop);
+        byte[] t = new byte[ptypes.length];
+        System.arraycopy(ptypes, 0, t, 0, pTop);
+        Object[] o = new Object[ostack.length];
+        System.arraycopy(ostack, 0, o, 0, oTop);
+        Object[] r = new Object[rstack.length];
+        System.arraycopy(rstack, 0, r, 0, rTop);
+        pstack = p;
+        ptypes = t;
+        ostack = o;
+        rstack = r;
+        shared = false;
+    }
+    
+    private void growPrimitives(int required) {
+        int size = Math.max(required, Math.max(8, pstack.length * 2));
+        long[] hlp = new long[size];
+        System.arraycopy(pstack, 0, hlp, 0, pTop);
+        pstack = hlp;
+        byte[] types = new byte[size];
+        System.arraycopy(ptypes, 0, types, 0, pTop);
+        ptypes = types;
+    }
+    
+    private void growObjects(int required) {
+        Object[] hlp = new Object[Math.max(required, Math.max(8, ostack.length * 2))];
+        System.arraycopy(ostack, 0, hlp, 0, oTop);
+        ostack = hlp;
     }
 
     private void writeObject(ObjectOutputStream s) throws IOException {
+        // Stream format has per-type counters (double, float, long, int) 
+        // but not the order of types, so values are read back untyped
+        int dTop = 0, fTop = 0, lTop = 0, iTop = 0;
+        for (int i = 0; i < pTop; i++) {
+            switch (ptypes[i]) {
+                case DOUBLE: dTop++; break;
+                case FLOAT:  fTop++; break;
+                case LONG:   lTop++; break;
+                default:     iTop++;
+            }
+        }
         s.writeInt(dTop);
         s.writeInt(fTop);
         s.writeInt(lTop);
         s.writeInt(iTop);
-        int pTop = pTop();
         for (int i = 0; i < pTop; i++) {
             s.writeLong(pstack[i]);
         }
@@ -350,12 +527,9 @@ public class Stack implements Serializable {
     }
 
     private void readObject(ObjectInputStream s) throws IOException, ClassNotFoundException {
-        dTop = s.readInt();
-        fTop = s.readInt();
-        lTop = s.readInt();
-        iTop = s.readInt();
-        int pTop = pTop();
+        pTop = s.readInt() + s.readInt() + s.readInt() + s.readInt();
         pstack = new long[pTop];
+        ptypes = new byte[pTop]; // all ANY
         for (int i = 0; i < pTop; i++) {
             pstack[i] = s.readLong();
         }
@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2025 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -78,6 +78,7 @@ public final class StackRecorder extends Stack {
 
     /**
      * Creates a clone of the given {@link StackRecorder}.
+     * The clone shares stack content with the parent until either of them is modified.
      * @param parent
      *       a StackRecorder to clone
      * 
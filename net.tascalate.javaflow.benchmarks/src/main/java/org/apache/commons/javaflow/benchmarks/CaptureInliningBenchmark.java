@@ -0,0 +1,110 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.javaflow.api.Continuation;
+import org.apache.commons.javaflow.providers.core.ContinuableClassTransformationFactory;
+import org.apache.commons.javaflow.spi.ClasspathResourceLoader;
+import org.apache.commons.javaflow.spi.MorphingResourceLoader;
+import org.apache.commons.javaflow.spi.ResourceTransformer;
+
+/**
+ * Fast path of instrumented code: a tight loop of calls to small continuable 
+ * methods that never suspend (see {@link ClassCorpus#tightLoop(int)}), 
+ * instrumented either with inline capture code or with capture code moved 
+ * to synthetic helpers (<code>outline</code>), so the instrumented methods 
+ * are smaller and more likely to be inlined by JIT.
+ * <p>
+ * The loop runs either inside a continuation or as a plain method call 
+ * (no continuation is running, so instrumented code takes the shortest path).
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CaptureInliningBenchmark {
+    
+    @Param({"inline", "outline"})
+    public String capture;
+    
+    @Param({"1000"})
+    public int iterations;
+    
+    private Runnable tightLoop;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        Map<String, byte[]> classes = ClassCorpus.tightLoop(iterations);
+        String name = classes.keySet().iterator().next();
+        byte[] original = classes.get(name);
+        
+        Map<String, byte[]> resources = new HashMap<String, byte[]>();
+        resources.put(name + ".class", original);
+        ClassLoader parent = CaptureInliningBenchmark.class.getClassLoader(); 
+        ResourceTransformer transformer = new ContinuableClassTransformationFactory(true, "outline".equals(capture))
+            .createTransformer(new MorphingResourceLoader(new ClasspathResourceLoader(parent), resources));
+        byte[] instrumented;
+        try {
+            instrumented = transformer.transform(original);
+        } finally {
+            transformer.release();
+        }
+        
+        Class<?> tightLoopClass = new DefiningClassLoader(parent).define(name.replace('/', '.'), instrumented);
+        tightLoop = (Runnable)tightLoopClass.getConstructor().newInstance();
+    }
+    
+    @Benchmark
+    public Continuation insideContinuation() {
+        return Continuation.startWith(tightLoop);
+    }
+    
+    @Benchmark
+    public Runnable outsideContinuation() {
+        tightLoop.run();
+        return tightLoop;
+    }
+    
+    static class DefiningClassLoader extends ClassLoader {
+        DefiningClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+        
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
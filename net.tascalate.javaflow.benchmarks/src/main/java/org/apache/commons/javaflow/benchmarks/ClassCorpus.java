@@ -0,0 +1,448 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.javaflow.spi.FastByteArrayOutputStream;
+import org.apache.commons.javaflow.spi.RecursiveFilesIterator;
+
+import net.tascalate.asmx.ClassWriter;
+import net.tascalate.asmx.Label;
+import net.tascalate.asmx.MethodVisitor;
+import net.tascalate.asmx.Opcodes;
+
+/**
+ * Fixed set of class files fed to the instrumentation benchmarks. 
+ * Keys are internal class names, values are original (not instrumented) bytes.
+ */
+class ClassCorpus {
+    
+    private static final String CONTINUATION = "org/apache/commons/javaflow/api/Continuation";
+    private static final String CONTINUABLE  = "Lorg/apache/commons/javaflow/api/continuable;";
+    
+    private ClassCorpus() {}
+
+    /**
+     * Generates <code>classes</code> classes with <code>methods</code> continuable 
+     * methods each. Every method keeps several locals alive across 
+     * a suspend call inside a loop and calls the previous method of the same class,
+     * i.e. every method has two guarded call sites.
+     */
+    static Map<String, byte[]> synthetic(int classes, int methods) {
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < classes; i++) {
+            String name = "org/apache/commons/javaflow/benchmarks/synthetic/Synthetic" + i;
+            result.put(name, generateClass(name, methods, methods));
+        }
+        return result;
+    }
+    
+    /**
+     * Generates <code>classes</code> classes with <code>methods</code> methods each 
+     * where only the first method is continuable, like typical service classes. 
+     * Methods have the same bodies as in {@link #synthetic(int, int)}.
+     */
+    static Map<String, byte[]> sparse(int classes, int methods) {
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < classes; i++) {
+            String name = "org/apache/commons/javaflow/benchmarks/synthetic/Sparse" + i;
+            result.put(name, generateClass(name, methods, 1));
+        }
+        return result;
+    }
+    
+    /**
+     * Generates a class with a single large continuable method, like the ones produced
+     * by parser or state machine generators. The method body consists of <code>blocks</code> 
+     * blocks, each block creates a new object and conditionally suspends:
+     * <pre>
+     * public class LargeMethod {
+     *     public &#64;continuable long run(int n) {
+     *         long acc = n;
+     *         String s = "";
+     *         // repeated for every block k
+     *         acc += k * n;
+     *         s = new StringBuilder(s).append(k).toString();
+     *         if ((acc &amp; k) == 0) {
+     *             Continuation.suspend(s);
+     *         }
+     *         // end of block
+     *         return acc + s.length();
+     *     }
+     * }
+     * </pre>
+     */
+    static Map<String, byte[]> largeMethod(int blocks) {
+        String name = "org/apache/commons/javaflow/benchmarks/synthetic/LargeMethod";
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        generateConstructor(cw);
+        
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "(I)J", null, null);
+        mv.visitAnnotation(CONTINUABLE, false).visitEnd();
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitVarInsn(Opcodes.LSTORE, 2);
+        mv.visitLdcInsn("");
+        mv.visitVarInsn(Opcodes.ASTORE, 4);
+        for (int k = 0; k < blocks; k++) {
+            mv.visitVarInsn(Opcodes.LLOAD, 2);
+            mv.visitLdcInsn(Integer.valueOf(k));
+            mv.visitVarInsn(Opcodes.ILOAD, 1);
+            mv.visitInsn(Opcodes.IMUL);
+            mv.visitInsn(Opcodes.I2L);
+            mv.visitInsn(Opcodes.LADD);
+            mv.visitVarInsn(Opcodes.LSTORE, 2);
+            
+            mv.visitTypeInsn(Opcodes.NEW, "java/lang/StringBuilder");
+            mv.visitInsn(Opcodes.DUP);
+            mv.visitVarInsn(Opcodes.ALOAD, 4);
+            mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(Ljava/lang/String;)V", false);
+            mv.visitLdcInsn(Integer.valueOf(k));
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "append", "(I)Ljava/lang/StringBuilder;", false);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+            mv.visitVarInsn(Opcodes.ASTORE, 4);
+            
+            Label skip = new Label();
+            mv.visitVarInsn(Opcodes.LLOAD, 2);
+            mv.visitLdcInsn(Long.valueOf(k));
+            mv.visitInsn(Opcodes.LAND);
+            mv.visitInsn(Opcodes.LCONST_0);
+            mv.visitInsn(Opcodes.LCMP);
+            mv.visitJumpInsn(Opcodes.IFNE, skip);
+            mv.visitVarInsn(Opcodes.ALOAD, 4);
+            mv.visitMethodInsn(Opcodes.INVOKESTATIC, CONTINUATION, "suspend", "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+            mv.visitInsn(Opcodes.POP);
+            mv.visitLabel(skip);
+        }
+        mv.visitVarInsn(Opcodes.LLOAD, 2);
+        mv.visitVarInsn(Opcodes.ALOAD, 4);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitInsn(Opcodes.LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        
+        cw.visitEnd();
+        return Collections.singletonMap(name, cw.toByteArray());
+    }
+    
+    /**
+     * Generates a final continuable <code>Runnable</code> with a tight loop of 
+     * <code>iterations</code> calls to a small continuable method that never 
+     * suspends in practice:
+     * <pre>
+     * public final class TightLoop implements Runnable {
+     *     public long result;
+     *     public &#64;continuable void run() {
+     *         long acc = 0;
+     *         for (int i = 0; i &lt; iterations; i++) {
+     *             acc = step(acc, i);
+     *         }
+     *         result = acc;
+     *     }
+     *     public &#64;continuable long step(long acc, int i) {
+     *         return acc + leaf(i);
+     *     }
+     *     public &#64;continuable long leaf(int i) {
+     *         if (i &lt; 0) {
+     *             Continuation.suspend(null);
+     *         }
+     *         return i * 31L;
+     *     }
+     * }
+     * </pre>
+     */
+    static Map<String, byte[]> tightLoop(int iterations) {
+        String name = "org/apache/commons/javaflow/benchmarks/synthetic/TightLoop";
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER, name, null, "java/lang/Object", 
+                 new String[] {"java/lang/Runnable"});
+        cw.visitField(Opcodes.ACC_PUBLIC, "result", "J", null, null).visitEnd();
+        generateConstructor(cw);
+        
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+        mv.visitAnnotation(CONTINUABLE, false).visitEnd();
+        mv.visitCode();
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 3);
+        Label loopCondition = new Label();
+        Label loopEnd = new Label();
+        mv.visitLabel(loopCondition);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitLdcInsn(Integer.valueOf(iterations));
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, loopEnd);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "step", "(JI)J", false);
+        mv.visitVarInsn(Opcodes.LSTORE, 1);
+        mv.visitIincInsn(3, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loopCondition);
+        mv.visitLabel(loopEnd);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "result", "J");
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "step", "(JI)J", null, null);
+        mv.visitAnnotation(CONTINUABLE, false).visitEnd();
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.LLOAD, 1);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ILOAD, 3);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, name, "leaf", "(I)J", false);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitInsn(Opcodes.LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "leaf", "(I)J", null, null);
+        mv.visitAnnotation(CONTINUABLE, false).visitEnd();
+        mv.visitCode();
+        Label positive = new Label();
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitJumpInsn(Opcodes.IFGE, positive);
+        mv.visitInsn(Opcodes.ACONST_NULL);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, CONTINUATION, "suspend", "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+        mv.visitInsn(Opcodes.POP);
+        mv.visitLabel(positive);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitLdcInsn(Long.valueOf(31L));
+        mv.visitInsn(Opcodes.LMUL);
+        mv.visitInsn(Opcodes.LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+        
+        cw.visitEnd();
+        return Collections.singletonMap(name, cw.toByteArray());
+    }
+    
+    /**
+     * Collects all classes from the code sources (JAR files or directories) 
+     * of the marker classes. 
+     */
+    static Map<String, byte[]> library(Class<?>... markers) throws IOException {
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        for (Class<?> marker : markers) {
+            CodeSource codeSource = marker.getProtectionDomain().getCodeSource();
+            if (null == codeSource || null == codeSource.getLocation()) {
+                continue;
+            }
+            File location = toFile(codeSource.getLocation());
+            if (location.isDirectory()) {
+                String prefix = location.getAbsolutePath();
+                for (File f : RecursiveFilesIterator.scanClassFiles(location)) {
+                    String path = f.getAbsolutePath().substring(prefix.length() + 1).replace(File.separatorChar, '/');
+                    addClass(result, path, readAll(new FileInputStream(f)));
+                }
+            } else {
+                JarFile jar = new JarFile(location);
+                try {
+                    Enumeration<JarEntry> entries = jar.entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+                            addClass(result, entry.getName(), readAll(jar.getInputStream(entry)));
+                        }
+                    }
+                } finally {
+                    jar.close();
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Stores class files under the directory, so they are visible 
+     * via class loader as regular resources.
+     */
+    static void writeTo(File dir, Map<String, byte[]> corpus) throws IOException {
+        for (Map.Entry<String, byte[]> e : corpus.entrySet()) {
+            File f = new File(dir, e.getKey() + ".class");
+            f.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(f);
+            try {
+                out.write(e.getValue());
+            } finally {
+                out.close();
+            }
+        }
+    }
+    
+    static long totalBytes(Map<String, byte[]> corpus) {
+        long result = 0;
+        for (byte[] bytes : corpus.values()) {
+            result += bytes.length;
+        }
+        return result;
+    }
+    
+    private static void addClass(Map<String, byte[]> result, String path, byte[] bytes) {
+        if (path.startsWith("META-INF/") || path.endsWith("module-info.class")) {
+            return;
+        }
+        String name = path.substring(0, path.length() - ".class".length());
+        if (!result.containsKey(name)) {
+            result.put(name, bytes);
+        }
+    }
+    
+    private static File toFile(URL url) throws IOException {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException ex) {
+            throw new IOException(ex);
+        }
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            FastByteArrayOutputStream out = new FastByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+    
+    private static byte[] generateClass(String name, int methods, int continuableMethods) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_SUPER, name, null, "java/lang/Object", null);
+        generateConstructor(cw);
+        
+        for (int k = 0; k < methods; k++) {
+            generateMethod(cw, name, k, k < continuableMethods);
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+    
+    private static void generateConstructor(ClassWriter cw) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+    
+    /*
+     * public [@continuable] long m<k>(int n, long seed) {
+     *     long acc = seed;
+     *     String s = "m<k>";
+     *     Object o = this;
+     *     for (int i = 0; i < n; i++) {
+     *         acc += ((Long)Continuation.suspend(Long.valueOf(acc))).longValue();
+     *         acc += m<k-1>(i, acc); // if k > 0
+     *     }
+     *     return acc + s.length() + (o == this ? 1 : 0);
+     * }
+     */
+    private static void generateMethod(ClassWriter cw, String owner, int k, boolean continuable) {
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "m" + k, "(IJ)J", null, null);
+        if (continuable) {
+            mv.visitAnnotation(CONTINUABLE, false).visitEnd();
+        }
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.LLOAD, 2);
+        mv.visitVarInsn(Opcodes.LSTORE, 4);
+        mv.visitLdcInsn("m" + k);
+        mv.visitVarInsn(Opcodes.ASTORE, 6);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ASTORE, 7);
+        mv.visitInsn(Opcodes.ICONST_0);
+        mv.visitVarInsn(Opcodes.ISTORE, 8);
+        
+        Label loopCondition = new Label();
+        Label loopEnd = new Label();
+        mv.visitLabel(loopCondition);
+        mv.visitVarInsn(Opcodes.ILOAD, 8);
+        mv.visitVarInsn(Opcodes.ILOAD, 1);
+        mv.visitJumpInsn(Opcodes.IF_ICMPGE, loopEnd);
+        
+        mv.visitVarInsn(Opcodes.LLOAD, 4);
+        mv.visitVarInsn(Opcodes.LLOAD, 4);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Long", "valueOf", "(J)Ljava/lang/Long;", false);
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, CONTINUATION, "suspend", "(Ljava/lang/Object;)Ljava/lang/Object;", false);
+        mv.visitTypeInsn(Opcodes.CHECKCAST, "java/lang/Long");
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/Long", "longValue", "()J", false);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitVarInsn(Opcodes.LSTORE, 4);
+        
+        if (k > 0) {
+            mv.visitVarInsn(Opcodes.LLOAD, 4);
+            mv.visitVarInsn(Opcodes.ALOAD, 0);
+            mv.visitVarInsn(Opcodes.ILOAD, 8);
+            mv.visitVarInsn(Opcodes.LLOAD, 4);
+            mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, owner, "m" + (k - 1), "(IJ)J", false);
+            mv.visitInsn(Opcodes.LADD);
+            mv.visitVarInsn(Opcodes.LSTORE, 4);
+        }
+        
+        mv.visitIincInsn(8, 1);
+        mv.visitJumpInsn(Opcodes.GOTO, loopCondition);
+        
+        mv.visitLabel(loopEnd);
+        mv.visitVarInsn(Opcodes.LLOAD, 4);
+        mv.visitVarInsn(Opcodes.ALOAD, 6);
+        mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "java/lang/String", "length", "()I", false);
+        mv.visitInsn(Opcodes.I2L);
+        mv.visitInsn(Opcodes.LADD);
+        Label notSame = new Label();
+        Label done = new Label();
+        mv.visitVarInsn(Opcodes.ALOAD, 7);
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitJumpInsn(Opcodes.IF_ACMPNE, notSame);
+        mv.visitInsn(Opcodes.LCONST_1);
+        mv.visitJumpInsn(Opcodes.GOTO, done);
+        mv.visitLabel(notSame);
+        mv.visitInsn(Opcodes.LCONST_0);
+        mv.visitLabel(done);
+        mv.visitInsn(Opcodes.LADD);
+        mv.visitInsn(Opcodes.LRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+}
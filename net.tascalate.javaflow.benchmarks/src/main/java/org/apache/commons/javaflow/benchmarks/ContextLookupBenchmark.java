@@ -0,0 +1,104 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.javaflow.api.Continuation;
+import org.apache.commons.javaflow.core.StackRecorder;
+
+/**
+ * Cost of the continuation context lookup done on entry of every continuable method.
+ * <ul>
+ * <li><code>platform*</code> - default lookup: {@link ThreadLocal} 
+ * before Java 25, <code>ScopedValue</code> on Java 25+; add
+ * <code>-jvmArgsAppend --enable-preview</code> to get <code>ScopedValue</code> on Java 21-24</li>
+ * <li><code>checkThread*</code> - <code>net.tascalate.javaflow.check-thread</code> is on,
+ * but benchmarks run on regular threads, i.e. overhead of the check itself</li>
+ * <li><code>continuationThread*</code> - benchmarks run on 
+ * {@link org.apache.commons.javaflow.core.ContinuationThread}-s, context is a plain field</li>
+ * </ul>
+ * <p>
+ * <code>*Lookup</code> benchmarks call {@link StackRecorder#get()} outside of continuation,
+ * like any continuable method called from a regular code; <code>*Start</code> benchmarks 
+ * run a chain of 20 continuable frames up to the first suspend.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class ContextLookupBenchmark {
+    
+    private static final String CHECK_THREAD = "-Dnet.tascalate.javaflow.check-thread=true";
+    private static final String CUSTOM_EXECUTOR = "-Djmh.executor=CUSTOM";
+    private static final String CUSTOM_EXECUTOR_CLASS = 
+        "-Djmh.executor.class=org.apache.commons.javaflow.benchmarks.ContinuationThreadExecutor";
+    
+    private Runnable generator;
+    
+    @Setup
+    public void setUp() {
+        generator = new FrameChain(20, false);
+    }
+    
+    @Benchmark
+    @Fork(1)
+    public StackRecorder platformLookup() {
+        return StackRecorder.get();
+    }
+    
+    @Benchmark
+    @Fork(1)
+    public Continuation platformStart() {
+        return Continuation.startWith(generator, true);
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {CHECK_THREAD})
+    public StackRecorder checkThreadLookup() {
+        return StackRecorder.get();
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {CHECK_THREAD})
+    public Continuation checkThreadStart() {
+        return Continuation.startWith(generator, true);
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {CHECK_THREAD, CUSTOM_EXECUTOR, CUSTOM_EXECUTOR_CLASS})
+    public StackRecorder continuationThreadLookup() {
+        return StackRecorder.get();
+    }
+    
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {CHECK_THREAD, CUSTOM_EXECUTOR, CUSTOM_EXECUTOR_CLASS})
+    public Continuation continuationThreadStart() {
+        return Continuation.startWith(generator, true);
+    }
+}
@@ -0,0 +1,106 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.javaflow.api.Continuation;
+
+/**
+ * End-to-end costs of continuations: start (run to the first suspend), 
+ * resume of multi-shot continuation (stack is copied on every resume) 
+ * and resume of single-shot continuation (stack is reused).
+ * <p>
+ * Every operation descends <code>depth</code> continuable frames, 
+ * so a single operation includes both capture and restore of the whole chain.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ContinuationBenchmark {
+
+    @Param({"1", "5", "20"})
+    public int depth;
+    
+    @Param({"narrow", "wide"})
+    public String frame;
+    
+    private Runnable generator;
+    private Continuation multiShot;
+    private Continuation singleShot;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        generator = new FrameChain(depth, "wide".equals(frame));
+        multiShot = Continuation.startWith(generator, false);
+    }
+    
+    @Setup(Level.Iteration)
+    public void resetSingleShot() {
+        singleShot = Continuation.startWith(generator, true);
+    }
+    
+    @Benchmark
+    public Continuation startMultiShot() {
+        return Continuation.startWith(generator, false);
+    }
+    
+    @Benchmark
+    public Continuation startSingleShot() {
+        return Continuation.startWith(generator, true);
+    }
+    
+    @Benchmark
+    public Continuation resumeMultiShot() {
+        // The same continuation is resumed over and over again
+        return multiShot.resume(Long.valueOf(1));
+    }
+    
+    @Benchmark
+    public Continuation resumeSingleShot() {
+        // Single-shot continuation may be resumed only once, so follow the chain
+        Continuation next = singleShot.resume(Long.valueOf(1));
+        singleShot = next;
+        return next;
+    }
+    
+    @Benchmark
+    public Continuation runToCompletion() {
+        // Start, suspend / resume 10 times, exit
+        Continuation c = Continuation.startWith(FrameChain.limited(depth, "wide".equals(frame), 10), true);
+        while (null != c) {
+            c = c.resume(Long.valueOf(1));
+        }
+        return c;
+    }
+}
@@ -0,0 +1,36 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.javaflow.core.ContinuationThreadFactory;
+
+/**
+ * JMH worker threads executor (<code>-Djmh.executor=CUSTOM</code>) 
+ * that runs benchmarks on {@link org.apache.commons.javaflow.core.ContinuationThread}-s.
+ */
+public class ContinuationThreadExecutor extends ThreadPoolExecutor {
+
+    public ContinuationThreadExecutor(int maxThreads, String prefix) {
+        super(maxThreads, maxThreads, 
+              1, TimeUnit.MINUTES, 
+              new LinkedBlockingQueue<Runnable>(), 
+              new ContinuationThreadFactory(prefix + "-jmh-worker-", true));
+    }
+}
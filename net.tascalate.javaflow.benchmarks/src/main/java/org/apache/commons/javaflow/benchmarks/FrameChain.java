@@ -0,0 +1,92 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import org.apache.commons.javaflow.api.Continuation;
+import org.apache.commons.javaflow.api.continuable;
+
+/**
+ * Continuable code used by benchmarks: an endless generator that descends 
+ * <code>depth</code> continuable frames before every suspend.
+ * <p>
+ * "Narrow" frames keep only a couple of live locals across the call,
+ * "wide" frames keep 15 live locals of mixed types, so the cost 
+ * of capture / restore per frame may be compared.
+ * </p>
+ */
+final class FrameChain implements Runnable {
+    
+    private final int depth;
+    private final boolean wide;
+    
+    FrameChain(int depth, boolean wide) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Depth must be positive: " + depth);
+        }
+        this.depth = depth;
+        this.wide = wide;
+    }
+
+    public @continuable void run() {
+        long counter = 0;
+        while (true) {
+            counter += wide ? wide(depth - 1, counter) : narrow(depth - 1, counter);
+        }
+    }
+    
+    /**
+     * Runs the chain only <code>times</code> times and then exits.
+     */
+    static Runnable limited(final int depth, final boolean wide, final int times) {
+        return new Runnable() {
+            public @continuable void run() {
+                FrameChain chain = new FrameChain(depth, wide);
+                long counter = 0;
+                for (int i = 0; i < times; i++) {
+                    counter += wide ? chain.wide(depth - 1, counter) : chain.narrow(depth - 1, counter);
+                }
+            }
+        };
+    }
+    
+    @continuable long narrow(int level, long seed) {
+        Object marker = this;
+        long result;
+        if (level == 0) {
+            result = ((Long)Continuation.suspend(Long.valueOf(seed))).longValue();
+        } else {
+            result = narrow(level - 1, seed + 1);
+        }
+        return result + (marker == this ? 1 : 0);
+    }
+    
+    @continuable long wide(int level, long seed) {
+        int i1 = level, i2 = level + 1, i3 = level + 2;
+        long l1 = seed, l2 = seed + 1, l3 = seed + 2;
+        float f1 = 1.0f, f2 = 2.0f;
+        double d1 = 1.0d, d2 = 2.0d;
+        Object o1 = this, o2 = "o2", o3 = Long.valueOf(seed);
+        String s1 = "s1", s2 = "s2";
+        long result;
+        if (level == 0) {
+            result = ((Long)Continuation.suspend(o3)).longValue();
+        } else {
+            result = wide(level - 1, seed + 1);
+        }
+        return result + i1 + i2 + i3 + l1 + l2 + l3 + (long)(f1 + f2 + d1 + d2) + 
+               (o1 == this ? 1 : 0) + (o2 == s1 ? 1 : 0) + (o3 == s2 ? 1 : 0);
+    }
+}
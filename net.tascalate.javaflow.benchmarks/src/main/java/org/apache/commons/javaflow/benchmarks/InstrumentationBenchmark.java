@@ -0,0 +1,193 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.instrument.IllegalClassFormatException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import org.apache.commons.javaflow.agent.common.ConfigurableClassFileTransformer;
+import org.apache.commons.javaflow.api.Continuation;
+import org.apache.commons.javaflow.providers.core.ContinuableClassTransformationFactory;
+import org.apache.commons.javaflow.spi.ClasspathResourceLoader;
+import org.apache.commons.javaflow.spi.ResourceLoader;
+import org.apache.commons.javaflow.spi.ResourceTransformationFactory;
+import org.apache.commons.javaflow.spi.ResourceTransformer;
+
+/**
+ * Instrumentation throughput: every operation transforms exactly one class 
+ * of the corpus (classes are taken round-robin), so the primary score 
+ * is classes per second, the <code>bytes</code> counter is input bytes per second
+ * and <code>gc.alloc.rate.norm</code> is allocation per class.
+ * <p>
+ * Corpora:
+ * </p>
+ * <ul>
+ * <li><code>synthetic</code> - generated classes where every method is continuable</li>
+ * <li><code>sparse</code> - generated classes with many methods where only one is continuable,
+ * the rest are copied to the output as is</li>
+ * <li><code>large</code> - generated class with a single large continuable method,
+ * see {@link ClassCorpus#largeMethod(int)}</li>
+ * <li><code>library</code> - classes of JavaFlow own JARs, mostly non-continuable, 
+ * this is the typical load of the Java agent</li>
+ * </ul>
+ * <p>
+ * Transformation goes either directly via {@link ContinuableClassTransformationFactory}
+ * (the way build-time tools work) or via {@link ConfigurableClassFileTransformer} 
+ * (the way Java agent works).
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InstrumentationBenchmark {
+    
+    @Param({"synthetic", "sparse", "large", "library"})
+    public String corpus;
+    
+    @Param({"100"})
+    public int syntheticClasses;
+    
+    @Param({"10"})
+    public int syntheticMethods;
+    
+    @Param({"200"})
+    public int sparseMethods;
+    
+    @Param({"300"})
+    public int largeBlocks;
+    
+    private File corpusDir;
+    private URLClassLoader corpusClassLoader;
+    private ResourceLoader resourceLoader;
+    private ResourceTransformationFactory factory;
+    private ConfigurableClassFileTransformer agentTransformer;
+    
+    private String[] classNames;
+    private byte[][] classBytes;
+    private int cursor;
+    
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+        
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        Map<String, byte[]> classes;
+        corpusDir = Files.createTempDirectory("javaflow-corpus").toFile();
+        if ("synthetic".equals(corpus)) {
+            classes = ClassCorpus.synthetic(syntheticClasses, syntheticMethods);
+            ClassCorpus.writeTo(corpusDir, classes);
+        } else if ("sparse".equals(corpus)) {
+            classes = ClassCorpus.sparse(syntheticClasses, sparseMethods);
+            ClassCorpus.writeTo(corpusDir, classes);
+        } else if ("large".equals(corpus)) {
+            classes = ClassCorpus.largeMethod(largeBlocks);
+            ClassCorpus.writeTo(corpusDir, classes);
+        } else {
+            classes = ClassCorpus.library(
+                Continuation.class, 
+                ResourceTransformer.class,
+                ContinuableClassTransformationFactory.class,
+                ConfigurableClassFileTransformer.class
+            );
+        }
+        classNames = classes.keySet().toArray(new String[classes.size()]);
+        classBytes = classes.values().toArray(new byte[classes.size()][]);
+        
+        // Resources of the corpus must be visible for the class hierarchy
+        corpusClassLoader = new URLClassLoader(
+            new URL[] {corpusDir.toURI().toURL()}, InstrumentationBenchmark.class.getClassLoader()
+        );
+        resourceLoader = new ClasspathResourceLoader(corpusClassLoader);
+        factory = new ContinuableClassTransformationFactory();
+        agentTransformer = new ConfigurableClassFileTransformer(new ContinuableClassTransformationFactory());
+        cursor = 0;
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        corpusClassLoader.close();
+        delete(corpusDir);
+    }
+    
+    @Benchmark
+    public byte[] factoryTransform(Counters counters) {
+        int idx = next();
+        byte[] original = classBytes[idx];
+        counters.bytes += original.length;
+        ResourceTransformer transformer = factory.createTransformer(resourceLoader);
+        try {
+            return transformer.transform(original);
+        } finally {
+            transformer.release();
+        }
+    }
+    
+    @Benchmark
+    public byte[] agentTransform(Counters counters) throws IllegalClassFormatException {
+        int idx = next();
+        byte[] original = classBytes[idx];
+        counters.bytes += original.length;
+        return agentTransformer.transform(corpusClassLoader, classNames[idx], null, null, original);
+    }
+    
+    private int next() {
+        int idx = cursor;
+        cursor = idx + 1 == classBytes.length ? 0 : idx + 1;
+        return idx;
+    }
+    
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
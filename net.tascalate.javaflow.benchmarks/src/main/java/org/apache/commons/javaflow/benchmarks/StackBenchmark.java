@@ -0,0 +1,175 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.apache.commons.javaflow.core.StackRecorder;
+
+/**
+ * Raw throughput of {@link org.apache.commons.javaflow.core.Stack} operations 
+ * in the same order as emitted by the instrumented code: capture pushes 
+ * operand stack slots, a reference to <code>this</code>, locals and the call-site index;
+ * restore pops them back in the reverse order.
+ * <p>
+ * The <code>bulk*</code> variants use frame-level capacity checks 
+ * (<code>reserveFrame</code> / <code>requireFrame</code>) like the code 
+ * emitted by the current instrumenter.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StackBenchmark {
+    
+    private static final Runnable NOP = new Runnable() {
+        public void run() {}
+    };
+
+    @Param({"1", "5", "20"})
+    public int frames;
+    
+    @Param({"2", "8", "15"})
+    public int locals;
+    
+    private StackRecorder filled;
+    private Object owner;
+    private String value;
+    
+    @Setup(Level.Trial)
+    public void setUp() {
+        owner = new Object();
+        value = "value";
+        filled = new StackRecorder(NOP);
+        capture(filled);
+    }
+    
+    @Benchmark
+    public void pushPop(Blackhole bh) {
+        StackRecorder stack = new StackRecorder(NOP);
+        capture(stack);
+        restore(stack, bh);
+    }
+    
+    @Benchmark
+    public void pushOnly(Blackhole bh) {
+        StackRecorder stack = new StackRecorder(NOP);
+        capture(stack);
+        bh.consume(stack);
+    }
+    
+    @Benchmark
+    public void bulkPushPop(Blackhole bh) {
+        StackRecorder stack = new StackRecorder(NOP);
+        bulkCapture(stack);
+        bulkRestore(stack, bh);
+    }
+    
+    @Benchmark
+    public void bulkPushOnly(Blackhole bh) {
+        StackRecorder stack = new StackRecorder(NOP);
+        bulkCapture(stack);
+        bh.consume(stack);
+    }
+    
+    @Benchmark
+    public StackRecorder copy() {
+        // What multi-shot continuation does on every resume (content is shared until modified)
+        return new StackRecorder(filled);
+    }
+    
+    private void capture(StackRecorder stack) {
+        for (int f = 0; f < frames; f++) {
+            stack.pushReference(owner);
+            for (int l = 0; l < locals; l++) {
+                switch (l & 3) {
+                    case 0: stack.pushInt(l); break;
+                    case 1: stack.pushLong(l); break;
+                    case 2: stack.pushDouble(l); break;
+                    default: stack.pushObject(value);
+                }
+            }
+            stack.pushInt(f);
+        }
+    }
+    
+    private void restore(StackRecorder stack, Blackhole bh) {
+        for (int f = frames - 1; f >= 0; f--) {
+            bh.consume(stack.popInt());
+            for (int l = locals - 1; l >= 0; l--) {
+                switch (l & 3) {
+                    case 0: bh.consume(stack.popInt()); break;
+                    case 1: bh.consume(stack.popLong()); break;
+                    case 2: bh.consume(stack.popDouble()); break;
+                    default: bh.consume(stack.popObject());
+                }
+            }
+            bh.consume(stack.popReference());
+        }
+    }
+    
+    private void bulkCapture(StackRecorder stack) {
+        int objects = locals / 4;
+        int primitives = locals - objects + 1;
+        for (int f = 0; f < frames; f++) {
+            stack.pushReference(owner);
+            stack.reserveFrame(primitives, objects);
+            for (int l = 0; l < locals; l++) {
+                switch (l & 3) {
+                    case 0: stack.putInt(l); break;
+                    case 1: stack.putLong(l); break;
+                    case 2: stack.putDouble(l); break;
+                    default: stack.putObject(value);
+                }
+            }
+            stack.putInt(f);
+        }
+    }
+    
+    private void bulkRestore(StackRecorder stack, Blackhole bh) {
+        int objects = locals / 4;
+        int primitives = locals - objects;
+        for (int f = frames - 1; f >= 0; f--) {
+            bh.consume(stack.popInt());
+            stack.requireFrame(primitives, objects);
+            for (int l = locals - 1; l >= 0; l--) {
+                switch (l & 3) {
+                    case 0: bh.consume(stack.takeInt()); break;
+                    case 1: bh.consume(stack.takeLong()); break;
+                    case 2: bh.consume(stack.takeDouble()); break;
+                    default: bh.consume(stack.takeObject());
+                }
+            }
+            bh.consume(stack.popReference());
+        }
+    }
+}
@@ -0,0 +1,173 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.providers.core;
+
+import static net.tascalate.asmx.Opcodes.*;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.tascalate.asmx.ClassVisitor;
+import net.tascalate.asmx.MethodVisitor;
+import net.tascalate.asmx.Type;
+
+/**
+ * Synthetic static methods of the instrumented class that save a frame 
+ * on capture, so the capture sequence after every guarded call is replaced 
+ * with a single call and instrumented methods stay small enough to be inlined 
+ * by JIT. Call sites with the same layout of saved values share a helper.
+ * <p>
+ * Parameters of a helper are saved stack values (bottom to top), 
+ * the owner object (for instance methods), saved locals (in ascending order),
+ * the StackRecorder and the call site index. Values are saved in the same order 
+ * as by the inline capture code.
+ * </p>
+ */
+class CaptureHelpers {
+    static final char STACK_SKIPPED = 'n';
+    static final char STACK_SAVED   = 's';
+    static final char OWNER         = 't';
+    static final char LOCAL_SAVED   = 'l';
+    
+    private static final String STACK_RECORDER = "org/apache/commons/javaflow/core/StackRecorder";
+    private static final String HELPER_PREFIX = "javaflow$capture$";
+    
+    private final String className;
+    private final Map<String, Helper> helpers = new LinkedHashMap<String, Helper>();
+    
+    CaptureHelpers(String className) {
+        this.className = className;
+    }
+    
+    String className() {
+        return className;
+    }
+    
+    /**
+     * @param types types of helper parameters that precede the StackRecorder and the call site index 
+     * @return descriptor of the helper
+     */
+    String descriptorOf(List<Type> types) {
+        Type[] params = types.toArray(new Type[types.size() + 2]);
+        params[params.length - 2] = Type.getObjectType(STACK_RECORDER);
+        params[params.length - 1] = Type.INT_TYPE;
+        return Type.getMethodDescriptor(Type.VOID_TYPE, params);
+    }
+    
+    /**
+     * Resolves (and registers if necessary) the helper for the layout of saved values
+     * @param kinds kind of every parameter, see constants
+     * @param descriptor descriptor of the helper
+     * @return name of the helper
+     */
+    String nameOf(String kinds, String descriptor) {
+        String key = kinds + descriptor;
+        Helper helper = helpers.get(key);
+        if (null == helper) {
+            helper = new Helper(HELPER_PREFIX + helpers.size(), kinds, descriptor);
+            helpers.put(key, helper);
+        }
+        return helper.name;
+    }
+    
+    void accept(ClassVisitor cv) {
+        for (Helper helper : helpers.values()) {
+            MethodVisitor mv = cv.visitMethod(ACC_PRIVATE | ACC_STATIC | ACC_SYNTHETIC, helper.name, helper.descriptor, null, null);
+            if (null != mv) {
+                helper.accept(mv);
+            }
+        }
+    }
+    
+    private static class Helper {
+        final String name;
+        final String kinds;
+        final String descriptor;
+        
+        Helper(String name, String kinds, String descriptor) {
+            this.name = name;
+            this.kinds = kinds;
+            this.descriptor = descriptor;
+        }
+        
+        void accept(MethodVisitor mv) {
+            Type[] params = Type.getArgumentTypes(descriptor);
+            int count = kinds.length();
+            int[] slots = new int[count];
+            int slot = 0;
+            int primitives = 1; // call site index
+            int objects = 0;
+            for (int i = 0; i < count; i++) {
+                slots[i] = slot;
+                slot += params[i].getSize();
+                char kind = kinds.charAt(i);
+                if (kind == STACK_SAVED || kind == LOCAL_SAVED) {
+                    if (isReference(params[i])) {
+                        objects++;
+                    } else {
+                        primitives++;
+                    }
+                }
+            }
+            int stackRecorderVar = slot;
+            int indexVar = slot + 1;
+            
+            mv.visitCode();
+            mv.visitVarInsn(ALOAD, stackRecorderVar);
+            ContinuableMethodVisitor.pushInt(mv, primitives);
+            ContinuableMethodVisitor.pushInt(mv, objects);
+            mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, "reserveFrame", "(II)V", false);
+            
+            // stack from top to bottom
+            for (int i = count - 1; i >= 0; i--) {
+                if (kinds.charAt(i) == STACK_SAVED) {
+                    put(mv, stackRecorderVar, params[i], slots[i]);
+                }
+            }
+            for (int i = 0; i < count; i++) {
+                char kind = kinds.charAt(i);
+                if (kind == OWNER) {
+                    mv.visitVarInsn(ALOAD, stackRecorderVar);
+                    mv.visitVarInsn(ALOAD, slots[i]);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, "pushReference", "(Ljava/lang/Object;)V", false);
+                } else if (kind == LOCAL_SAVED) {
+                    put(mv, stackRecorderVar, params[i], slots[i]);
+                }
+            }
+            
+            mv.visitVarInsn(ALOAD, stackRecorderVar);
+            mv.visitVarInsn(ILOAD, indexVar);
+            mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, "putInt", "(I)V", false);
+            mv.visitInsn(RETURN);
+            mv.visitMaxs(4, indexVar + 1);
+            mv.visitEnd();
+        }
+        
+        private static void put(MethodVisitor mv, int stackRecorderVar, Type type, int slot) {
+            mv.visitVarInsn(ALOAD, stackRecorderVar);
+            mv.visitVarInsn(type.getOpcode(ILOAD), slot);
+            mv.visitMethodInsn(
+                INVOKEVIRTUAL, STACK_RECORDER, ContinuableMethodVisitor.getPutMethod(type), 
+                "(" + (isReference(type) ? "Ljava/lang/Object;" : type.getDescriptor()) + ")V", false
+            );
+        }
+        
+        private static boolean isReference(Type type) {
+            return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY;
+        }
+    }
+}
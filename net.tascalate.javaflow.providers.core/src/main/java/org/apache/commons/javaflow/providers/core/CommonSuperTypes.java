@@ -0,0 +1,88 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.providers.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.tascalate.asmx.Type;
+import net.tascalate.asmx.plus.ClassHierarchy;
+
+/**
+ * Bounded memo of {@link ClassHierarchy#getCommonSuperType(Type, Type)} results shared 
+ * by all transformers of the same resource loader. The same pairs of types are merged 
+ * in every method of a class and across classes, while {@link ClassHierarchy} serializes 
+ * all lookups on a single lock. When the capacity is exceeded the memo is cleared.
+ */
+class CommonSuperTypes {
+    private final int capacity;
+    private final ConcurrentMap<Key, Type> cache;
+    
+    CommonSuperTypes(int capacity) {
+        this.capacity = capacity;
+        this.cache = new ConcurrentHashMap<Key, Type>();
+    }
+    
+    Type get(ClassHierarchy hierarchy, Type t, Type u) {
+        Key key = new Key(t.getInternalName(), u.getInternalName());
+        Type result = cache.get(key);
+        if (null != result) {
+            return result;
+        }
+        result = hierarchy.getCommonSuperType(t, u);
+        if (cache.size() >= capacity) {
+            cache.clear();
+        }
+        cache.put(key, result);
+        return result;
+    }
+    
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + 
+               "[size=" + cache.size() + "]";
+    }
+    
+    // Order of types matters: ClassHierarchy is biased to the first argument 
+    private static final class Key {
+        private final String first;
+        private final String second;
+        private final int hashCode;
+        
+        Key(String first, String second) {
+            this.first = first;
+            this.second = second;
+            this.hashCode = 31 * first.hashCode() + second.hashCode();
+        }
+        
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key that = (Key)other;
+            return hashCode == that.hashCode && first.equals(that.first) && second.equals(that.second);
+        }
+    }
+}
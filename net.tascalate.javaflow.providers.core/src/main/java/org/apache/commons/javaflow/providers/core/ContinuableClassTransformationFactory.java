@@ -19,16 +19,69 @@ import org.apache.commons.javaflow.spi.ResourceLoader;
 import org.apache.commons.javaflow.spi.ResourceTransformer;
 
 public class ContinuableClassTransformationFactory extends PartialResourceTransformationFactory {
+    
+    private final boolean directCalls;
+    private final boolean outlineCapture;
+    private final boolean analyzerFrames;
+    
+    public ContinuableClassTransformationFactory() {
+        this(DIRECT_CALLS, OUTLINE_CAPTURE);
+    }
+    
+    /**
+     * Both options add synthetic methods to instrumented classes, so they must be disabled 
+     * when already loaded classes are re-transformed: re-transformation may not add methods.
+     * 
+     * @param directCalls whether or not to pass StackRecorder directly between continuable methods
+     * of the same class via synthetic overloads
+     * @param outlineCapture whether or not to save frames on capture via synthetic static helpers
+     * instead of inline code, so instrumented methods are smaller and may be inlined by JIT 
+     * at the cost of an extra call on the (rare) capture path
+     */
+    public ContinuableClassTransformationFactory(boolean directCalls, boolean outlineCapture) {
+        this(directCalls, outlineCapture, ANALYZER_FRAMES);
+    }
+    
+    /**
+     * @param directCalls see {@link #ContinuableClassTransformationFactory(boolean, boolean)}
+     * @param outlineCapture see {@link #ContinuableClassTransformationFactory(boolean, boolean)}
+     * @param analyzerFrames whether or not to write stack map frames of instrumented methods 
+     * from the data-flow analysis of the instrumented code and keep original frames of other 
+     * methods, instead of recomputing all frames by the class writer
+     */
+    public ContinuableClassTransformationFactory(boolean directCalls, boolean outlineCapture, boolean analyzerFrames) {
+        this.directCalls = directCalls;
+        this.outlineCapture = outlineCapture;
+        this.analyzerFrames = analyzerFrames;
+    }
 
     public ResourceTransformer createTransformer(ResourceLoader resourceLoader) {
         SharedContinuableClassInfos sharedState = getCached(resourceLoader);
         return new ContinuableClassTransformer(
             // Actualize ClassHierarchy per resource loader
             shareHierarchy(sharedState.hierarchy(), resourceLoader),
-            new IContinuableClassInfoResolver(resourceLoader, sharedState)
+            sharedState.commonSuperTypes(),
+            new IContinuableClassInfoResolver(resourceLoader, sharedState),
+            directCalls,
+            outlineCapture,
+            analyzerFrames
         );
     }
     
-
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + 
+               "[directCalls=" + directCalls + ", outlineCapture=" + outlineCapture + 
+               ", analyzerFrames=" + analyzerFrames + "]";
+    }
+    
+    private static final boolean DIRECT_CALLS = 
+        Boolean.parseBoolean(System.getProperty("net.tascalate.javaflow.direct-calls", "true"));
+    
+    private static final boolean OUTLINE_CAPTURE = 
+        Boolean.getBoolean("net.tascalate.javaflow.outline-capture");
+    
+    private static final boolean ANALYZER_FRAMES = 
+        Boolean.getBoolean("net.tascalate.javaflow.analyzer-frames");
 
 }
\ No newline at end of file
@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2022 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -42,26 +42,66 @@ import net.tascalate.asmx.plus.OfflineClassWriter;
 class ContinuableClassTransformer extends AbstractResourceTransformer {
 
     private final ClassHierarchy classHierarchy;
+    private final CommonSuperTypes commonSuperTypes;
     private final IContinuableClassInfoResolver cciResolver;
+    private final boolean directCalls;
+    private final boolean outlineCapture;
+    private final boolean analyzerFrames;
 
-    ContinuableClassTransformer(ClassHierarchy classHierarchy, IContinuableClassInfoResolver cciResolver) {
+    ContinuableClassTransformer(ClassHierarchy classHierarchy, 
+                                CommonSuperTypes commonSuperTypes,
+                                IContinuableClassInfoResolver cciResolver, 
+                                boolean directCalls, 
+                                boolean outlineCapture,
+                                boolean analyzerFrames) {
         this.classHierarchy = classHierarchy;
+        this.commonSuperTypes = commonSuperTypes;
         this.cciResolver = cciResolver;
+        this.directCalls = directCalls;
+        this.outlineCapture = outlineCapture;
+        this.analyzerFrames = analyzerFrames;
     }
 
     public byte[] transform(byte[] original, Collection<String> retransformClasses) {
+        cciResolver.reset(retransformClasses);
         ClassReader reader = new ClassReader(original);
-        ClassWriter writer = new OfflineClassWriter(classHierarchy, reader, ClassWriter.COMPUTE_FRAMES);
+        // The same reader is used to resolve and to transform the class, method bodies 
+        // are decoded only by the transformation. Non-continuable classes are rejected 
+        // by the class header before copying the constant pool to the writer
+        IContinuableClassInfo classInfo = cciResolver.resolve(reader, original);
+        if (null == classInfo || classInfo.isClassProcessed()) {
+            return null;
+        }
+        
+        if (analyzerFrames) {
+            try {
+                return transform(reader, classInfo, true);
+            } catch (StackMapMethodVisitor.UnsupportedCodeException ex) {
+                // Fall back to frames computed by the class writer
+            }
+        }
+        return transform(reader, classInfo, false);
+    }
+    
+    private byte[] transform(ClassReader reader, IContinuableClassInfo classInfo, boolean analyzerFrames) {
+        // Frames of instrumented methods are either written by StackMapMethodVisitor
+        // or computed by the writer, frames of other methods are kept or dropped respectively
+        ClassWriter writer = new OfflineClassWriter(
+            classHierarchy, reader, analyzerFrames ? ClassWriter.COMPUTE_MAXS : ClassWriter.COMPUTE_FRAMES
+        );
         ContinuableClassVisitor visitor = new ContinuableClassVisitor(
             AsmVersion.CURRENT,
             writer, /* BytecodeDebugUtils.decorateClassVisitor(cw, true, * System.err) -- DUMP*/ 
             classHierarchy,
+            commonSuperTypes,
             cciResolver,
-            original
+            classInfo,
+            directCalls,
+            outlineCapture,
+            analyzerFrames
         );
-        cciResolver.reset(retransformClasses);
         try {
-            reader.accept(visitor, ClassReader.SKIP_FRAMES);
+            reader.accept(visitor, analyzerFrames ? 0 : ClassReader.SKIP_FRAMES);
         } catch (StopException ex) {
             // Preliminary stop visiting non-continuable class
             return null;
@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2022 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -23,6 +23,9 @@
  */
 package org.apache.commons.javaflow.providers.core;
 
+import java.util.Collections;
+import java.util.Set;
+
 import org.apache.commons.javaflow.spi.StopException;
 
 import net.tascalate.asmx.AnnotationVisitor;
@@ -39,23 +42,37 @@ import net.tascalate.asmx.plus.ClassHierarchy;
 class ContinuableClassVisitor extends ClassVisitor {
 
     private final ClassHierarchy classHierarchy;
+    private final CommonSuperTypes commonSuperTypes;
     private final IContinuableClassInfoResolver cciResolver;
+    private final boolean directCalls;
+    private final boolean outlineCapture;
+    private final boolean analyzerFrames;
     
-    private byte[] originalBytes;
+    private final IContinuableClassInfo classInfo;
     private String className;
-    private IContinuableClassInfo classInfo;
+    private Set<String> directMethods = Collections.emptySet();
+    private CaptureHelpers captureHelpers;
+    private boolean stackMapFrames = false;
     private boolean skipEnchancing = false;
     private int modifications = 0;
 
     ContinuableClassVisitor(int api,
                             ClassVisitor cv, 
                             ClassHierarchy classHierarchy, 
+                            CommonSuperTypes commonSuperTypes,
                             IContinuableClassInfoResolver cciResolver, 
-                            byte[] originalBytes) {
+                            IContinuableClassInfo classInfo,
+                            boolean directCalls,
+                            boolean outlineCapture,
+                            boolean analyzerFrames) {
         super(api, cv);
         this.classHierarchy = classHierarchy;
+        this.commonSuperTypes = commonSuperTypes;
         this.cciResolver = cciResolver;
-        this.originalBytes = originalBytes;
+        this.classInfo = classInfo;
+        this.directCalls = directCalls;
+        this.outlineCapture = outlineCapture;
+        this.analyzerFrames = analyzerFrames;
     }
 
     boolean skipEnchancing() {
@@ -69,16 +86,22 @@ class ContinuableClassVisitor extends ClassVisitor {
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
         className = name;
-        classInfo = cciResolver.resolve(name, originalBytes);
-        originalBytes = null; // reclaim memory
 
-        if (null == classInfo ||
-            classInfo.isClassProcessed() || 
+        if (classInfo.isClassProcessed() || 
             cciResolver.veto().matches(name, signature, superName, interfaces)) {
             skipEnchancing = true;
             // Must exit by throwing exception, otherwise NPE is possible in nested visitor
             throw StopException.INSTANCE;
         }
+        if (directCalls) {
+            directMethods = classInfo.directMethods();
+        }
+        if (outlineCapture && (access & Opcodes.ACC_INTERFACE) == 0) {
+            // Private static methods in interfaces are not supported by older class file versions
+            captureHelpers = new CaptureHelpers(name);
+        }
+        // Older class files have no stack map frames at all
+        stackMapFrames = analyzerFrames && (version & 0xFFFF) >= Opcodes.V1_6;
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
@@ -100,23 +123,43 @@ class ContinuableClassVisitor extends ClassVisitor {
                 v.visitEnd();
             }
         }
+        if (null != captureHelpers) {
+            captureHelpers.accept(cv);
+        }
         super.visitEnd();
     }
 
     @Override
     public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
         MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
-        boolean skip = skipEnchancing || null == classInfo || mv == null
+        boolean skip = skipEnchancing || mv == null
                 || (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) > 0 || "<init>".equals(name)
                 || !classInfo.isContinuableMethod(access, name, desc, signature);
         if (skip) {
+            // Writer's own visitor must be returned as is: ClassWriter created with 
+            // the ClassReader copies bytecode of such methods without parsing it
             return mv;
         } else {
             modifications++;
-            return new ContinuableMethodNode(
-                this.api, access, name, desc, signature, exceptions, 
-                className, classHierarchy, cciResolver, mv
-            );
+            if (directMethods.contains(name + desc)) {
+                // Instrumented body goes to the synthetic overload with the trailing StackRecorder
+                // parameter while the original method just passes StackRecorder.get() to it
+                MethodVisitor body = super.visitMethod(
+                    IContinuableClassInfo.directMethodAccess(access), 
+                    name, IContinuableClassInfo.directMethodDescriptor(desc), null, exceptions
+                );
+                return new ContinuableMethodNode(
+                    this.api, access, name, desc, signature, exceptions, 
+                    className, classHierarchy, commonSuperTypes, cciResolver, directMethods, captureHelpers, body, mv, 
+                    stackMapFrames
+                );
+            } else {
+                return new ContinuableMethodNode(
+                    this.api, access, name, desc, signature, exceptions, 
+                    className, classHierarchy, commonSuperTypes, cciResolver, directMethods, captureHelpers, mv, null, 
+                    stackMapFrames
+                );
+            }
         }
     }
 }
@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2022 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -42,13 +42,17 @@ import net.tascalate.asmx.Type;
 import net.tascalate.asmx.plus.ClassHierarchy;
 import net.tascalate.asmx.tree.AbstractInsnNode;
 import net.tascalate.asmx.tree.AnnotationNode;
+import net.tascalate.asmx.tree.FrameNode;
+import net.tascalate.asmx.tree.IincInsnNode;
 import net.tascalate.asmx.tree.InsnList;
 import net.tascalate.asmx.tree.InsnNode;
 import net.tascalate.asmx.tree.InvokeDynamicInsnNode;
 import net.tascalate.asmx.tree.LabelNode;
 import net.tascalate.asmx.tree.LocalVariableAnnotationNode;
+import net.tascalate.asmx.tree.LocalVariableNode;
 import net.tascalate.asmx.tree.MethodInsnNode;
 import net.tascalate.asmx.tree.MethodNode;
+import net.tascalate.asmx.tree.TypeInsnNode;
 import net.tascalate.asmx.tree.VarInsnNode;
 import net.tascalate.asmx.tree.analysis.Analyzer;
 import net.tascalate.asmx.tree.analysis.AnalyzerException;
@@ -59,29 +63,69 @@ import net.tascalate.asmx.tree.analysis.SourceValue;
 
 class ContinuableMethodNode extends MethodNode implements Opcodes {
     private final ClassHierarchy classHierarchy;
+    private final CommonSuperTypes commonSuperTypes;
     private final ContinuableClassInfoResolver cciResolver;
-    private final String className;
+    private final Set<String> directMethods;
+    private final MethodVisitor entry;
+    private final boolean stackMapFrames;
 
+    final String className;
+    final CaptureHelpers captureHelpers;
     final MethodVisitor mv;
 
     final List<Label>            labels  = new ArrayList<Label>();
     final List<AbstractInsnNode> nodes   = new ArrayList<AbstractInsnNode>();
     final List<MethodInsnNode>   methods = new ArrayList<MethodInsnNode>();
 
-    private Analyzer<BasicValue> analyzer;
+    static final String STACK_RECORDER = "org/apache/commons/javaflow/core/StackRecorder";
+
+    private SparseAnalyzer<BasicValue> analyzer;
+    // Original frames (expanded) and the nodes they follow, kept for methods without guarded call sites
+    private List<FrameNode> frames;
+    private List<AbstractInsnNode> framePositions;
+    private List<Object> frameLocals;
     int stackRecorderVar;
 
     ContinuableMethodNode(int api, int access, String name, String desc, String signature, String[] exceptions, 
                           String className, 
                           ClassHierarchy classHierarchy, 
+                          CommonSuperTypes commonSuperTypes,
                           ContinuableClassInfoResolver cciResolver, 
-                          MethodVisitor mv) {
+                          Set<String> directMethods,
+                          CaptureHelpers captureHelpers,
+                          MethodVisitor mv,
+                          MethodVisitor entry,
+                          boolean stackMapFrames) {
         
         super(api, access, name, desc, signature, exceptions);
         this.className = className;
         this.classHierarchy = classHierarchy;
+        this.commonSuperTypes = commonSuperTypes;
         this.cciResolver = cciResolver;
+        this.directMethods = directMethods;
+        this.captureHelpers = captureHelpers;
         this.mv = mv;
+        this.entry = entry;
+        this.stackMapFrames = stackMapFrames;
+    }
+    
+    /**
+     * Whether or not the instrumented body is written as a synthetic overload 
+     * that receives StackRecorder as a trailing parameter
+     * @return true if StackRecorder is passed as a parameter
+     */
+    boolean hasStackRecorderParameter() {
+        return null != entry;
+    }
+    
+    /**
+     * Whether or not the call targets the method of this class with a synthetic overload,
+     * so the current StackRecorder may be passed directly.
+     */
+    boolean isDirectCall(int opcode, String owner, String name, String desc) {
+        return opcode != INVOKEINTERFACE && 
+               className.equals(owner) && 
+               directMethods.contains(name + desc);
     }
 
     // Bug in rev 1632 (Refactoring to remove redundant code (and for easier subclassing).
@@ -93,10 +137,46 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
         return (LabelNode)l.info;
     }
 
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+        // Original frames are not valid for the instrumented code, so they are kept aside
+        if (!stackMapFrames) {
+            return;
+        }
+        if (null == frames) {
+            frames = new ArrayList<FrameNode>();
+            framePositions = new ArrayList<AbstractInsnNode>();
+            frameLocals = initialFrameLocals();
+        }
+        // Compressed frames are relative to the previous ones, so all are expanded
+        // to be valid when locals are shifted
+        switch (type) {
+            case F_NEW: case F_FULL:
+                frameLocals = new ArrayList<Object>(Arrays.asList(local).subList(0, numLocal));
+                break;
+            case F_APPEND:
+                frameLocals.addAll(Arrays.asList(local).subList(0, numLocal));
+                break;
+            case F_CHOP:
+                frameLocals = new ArrayList<Object>(frameLocals.subList(0, frameLocals.size() - numLocal));
+                break;
+            case F_SAME:
+                numStack = 0;
+                break;
+            case F_SAME1:
+                numStack = 1;
+                break;
+            default:
+        }
+        super.visitFrame(F_NEW, frameLocals.size(), frameLocals.toArray(), numStack, stack);
+        FrameNode frame = (FrameNode)instructions.getLast();
+        instructions.remove(frame);
+        frames.add(frame);
+        framePositions.add(instructions.getLast());
+    }
+    
     Frame<BasicValue> getFrameByNode(AbstractInsnNode node) {
-        int insIndex = instructions.indexOf(node);
-        Frame<BasicValue>[] frames = analyzer.getFrames();
-        return null == frames || insIndex >= frames.length ? null : frames[insIndex];
+        return analyzer.getFrame(node);
     }
 
     @Override
@@ -122,7 +202,7 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
     @Override
     public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
         InvokeDynamicInsnNode mnode = new InvokeDynamicInsnNode(name, desc, bsm, bsmArgs);
-        if (needsFrameGuard(INVOKEDYNAMIC, bsm.getOwner(), name, desc)) {
+        if (needsFrameGuard(bsm)) {
             Label label = new Label();
             super.visitLabel(label);
             labels.add(label);
@@ -133,18 +213,36 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
 
     @Override
     public void visitEnd() {
+        int stackRecorderParameter = -1;
+        if (hasStackRecorderParameter()) {
+            stackRecorderParameter = (Type.getArgumentsAndReturnSizes(desc) >> 2) - ((access & ACC_STATIC) != 0 ? 1 : 0);
+            shiftLocals(stackRecorderParameter);
+        }
+        
         checkForEach();
         checkCallSites();
+        
+        if (hasStackRecorderParameter()) {
+            acceptEntryPoint();
+        }
 
         if (instructions.size() == 0 || labels.size() == 0) {
+            restoreFrames(stackRecorderParameter);
             accept(mv);
             return;
         }
 
-        this.stackRecorderVar = maxLocals;
+        this.stackRecorderVar = hasStackRecorderParameter() ? stackRecorderParameter : maxLocals;
         try {
             moveNew();
-            analyzer = new Analyzer<BasicValue>(new FastClassVerifier(this.api, classHierarchy)) {
+            if (stackMapFrames) {
+                labelNew();
+            }
+            // Frames are necessary only at guarded call sites, the rest are not kept
+            FastClassVerifier verifier = stackMapFrames ? 
+                new StackMapVerifier(this.api, classHierarchy, commonSuperTypes) :
+                new FastClassVerifier(this.api, classHierarchy, commonSuperTypes);
+            analyzer = new SparseAnalyzer<BasicValue>(verifier) {
                 @Override
                 protected Frame<BasicValue> newFrame(int nLocals, int nStack) {
                     return new MonitoringFrame<BasicValue>(nLocals, nStack);
@@ -156,14 +254,196 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
                 }
             };
 
-            analyzer.analyze(className, this);
-            accept(new ContinuableMethodVisitor(this.api, this));
+            analyzer.analyze(className, this, nodes);
+            LocalsLiveness liveness = pruneDeadLocals();
+            StackMapMethodVisitor frames = stackMapFrames ? 
+                new StackMapMethodVisitor(this.api, this, liveness, stackRecorderVar, mv) : null; 
+            accept(new ContinuableMethodVisitor(this.api, this, frames));
 
         } catch (AnalyzerException ex) {
             throw new RuntimeException(ex);
         }
     }
     
+    private List<Object> initialFrameLocals() {
+        List<Object> result = new ArrayList<Object>();
+        if ((access & ACC_STATIC) == 0) {
+            result.add(className);
+        }
+        for (Type type : Type.getArgumentTypes(desc)) {
+            switch (type.getSort()) {
+                case Type.BOOLEAN: case Type.CHAR: case Type.BYTE: case Type.SHORT: case Type.INT:
+                    result.add(INTEGER);
+                    break;
+                case Type.FLOAT:
+                    result.add(FLOAT);
+                    break;
+                case Type.LONG:
+                    result.add(LONG);
+                    break;
+                case Type.DOUBLE:
+                    result.add(DOUBLE);
+                    break;
+                case Type.ARRAY:
+                    result.add(type.getDescriptor());
+                    break;
+                default:
+                    result.add(type.getInternalName());
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Puts original frames back to the method that is not instrumented
+     * @param stackRecorderParameter the index of StackRecorder parameter or -1
+     */
+    private void restoreFrames(int stackRecorderParameter) {
+        if (null == frames) {
+            return;
+        }
+        for (int i = 0; i < frames.size(); i++) {
+            FrameNode frame = frames.get(i);
+            if (stackRecorderParameter >= 0) {
+                // Locals are shifted, StackRecorder parameter is not used
+                int slot = 0;
+                for (int j = 0; j < frame.local.size(); j++) {
+                    if (slot == stackRecorderParameter) {
+                        frame.local.add(j, TOP);
+                        break;
+                    }
+                    Object type = frame.local.get(j);
+                    slot += type == LONG || type == DOUBLE ? 2 : 1;
+                }
+            }
+            AbstractInsnNode position = framePositions.get(i);
+            if (null == position) {
+                instructions.insert(frame);
+            } else {
+                instructions.insert(position, frame);
+            }
+        }
+    }
+    
+    private void shiftLocals(int firstLocal) {
+        for (AbstractInsnNode node = instructions.getFirst(); node != null; node = node.getNext()) {
+            if (node instanceof VarInsnNode) {
+                VarInsnNode varNode = (VarInsnNode)node;
+                if (varNode.var >= firstLocal) {
+                    varNode.var++;
+                }
+            } else if (node instanceof IincInsnNode) {
+                IincInsnNode iincNode = (IincInsnNode)node;
+                if (iincNode.var >= firstLocal) {
+                    iincNode.var++;
+                }
+            }
+        }
+        if (null != localVariables) {
+            for (LocalVariableNode varNode : localVariables) {
+                if (varNode.index >= firstLocal) {
+                    varNode.index++;
+                }
+            }
+        }
+        shiftLocals(firstLocal, visibleLocalVariableAnnotations);
+        shiftLocals(firstLocal, invisibleLocalVariableAnnotations);
+        maxLocals++;
+    }
+    
+    private static void shiftLocals(int firstLocal, List<LocalVariableAnnotationNode> nodes) {
+        if (null == nodes) {
+            return;
+        }
+        for (LocalVariableAnnotationNode n : nodes) {
+            for (int i = n.index.size() - 1; i >= 0; i--) {
+                int index = n.index.get(i);
+                if (index >= firstLocal) {
+                    n.index.set(i, index + 1);
+                }
+            }
+        }
+    }
+    
+    private void acceptEntryPoint() {
+        // Method-level metadata belongs to the original method, the synthetic overload has none
+        MethodNode entryPoint = new MethodNode(
+            api, access, name, desc, signature, exceptions.toArray(new String[exceptions.size()])
+        );
+        entryPoint.parameters = parameters;
+        entryPoint.visibleAnnotations = visibleAnnotations;
+        entryPoint.invisibleAnnotations = invisibleAnnotations;
+        entryPoint.visibleTypeAnnotations = visibleTypeAnnotations;
+        entryPoint.invisibleTypeAnnotations = invisibleTypeAnnotations;
+        entryPoint.visibleAnnotableParameterCount = visibleAnnotableParameterCount;
+        entryPoint.visibleParameterAnnotations = visibleParameterAnnotations;
+        entryPoint.invisibleAnnotableParameterCount = invisibleAnnotableParameterCount;
+        entryPoint.invisibleParameterAnnotations = invisibleParameterAnnotations;
+        entryPoint.attrs = attrs;
+        
+        parameters = null;
+        visibleAnnotations = null;
+        invisibleAnnotations = null;
+        visibleTypeAnnotations = null;
+        invisibleTypeAnnotations = null;
+        visibleAnnotableParameterCount = 0;
+        visibleParameterAnnotations = null;
+        invisibleAnnotableParameterCount = 0;
+        invisibleParameterAnnotations = null;
+        attrs = null;
+        
+        // PC: return name(args..., StackRecorder.get());
+        boolean isStatic = (access & ACC_STATIC) != 0;
+        int slot = 0;
+        if (!isStatic) {
+            entryPoint.visitVarInsn(ALOAD, slot++);
+        }
+        for (Type arg : Type.getArgumentTypes(desc)) {
+            entryPoint.visitVarInsn(arg.getOpcode(ILOAD), slot);
+            slot += arg.getSize();
+        }
+        entryPoint.visitMethodInsn(
+            INVOKESTATIC, STACK_RECORDER, "get", "()" + IContinuableClassInfo.STACK_RECORDER_DESCRIPTOR, false
+        );
+        entryPoint.visitMethodInsn(
+            isStatic ? INVOKESTATIC : INVOKESPECIAL, 
+            className, name, IContinuableClassInfo.directMethodDescriptor(desc), false
+        );
+        Type returnType = Type.getReturnType(desc);
+        entryPoint.visitInsn(returnType.getOpcode(IRETURN));
+        entryPoint.visitMaxs(Math.max(slot + 1, returnType.getSize()), slot);
+        entryPoint.visitEnd();
+        
+        entryPoint.accept(entry);
+    }
+    
+    /**
+     * Marks locals that are not read after guarded calls as uninitialized in frames 
+     * of these calls, so they are neither saved on capture nor restored on resume 
+     * @return liveness of locals or null if method uses subroutines (JSR/RET)
+     */
+    private LocalsLiveness pruneDeadLocals() {
+        LocalsLiveness liveness = LocalsLiveness.analyze(this);
+        if (null == liveness) {
+            return null;
+        }
+        for (AbstractInsnNode node : nodes) {
+            Frame<BasicValue> frame = getFrameByNode(node);
+            if (null == frame) {
+                continue;
+            }
+            // Monitors are re-entered on resume, so monitored locals are always restored
+            int[] monitored = frame instanceof MonitoringFrame ? ((MonitoringFrame<?>)frame).getMonitored() : new int[0];
+            Arrays.sort(monitored);
+            for (int j = frame.getLocals() - 1; j >= 0; j--) {
+                if (!liveness.isLiveBefore(node, j) && Arrays.binarySearch(monitored, j) < 0) {
+                    frame.setLocal(j, BasicValue.UNINITIALIZED_VALUE);
+                }
+            }
+        }
+        return liveness;
+    }
+    
     private void checkForEach() {
         new ForEachHandler(api, this, classHierarchy, cciResolver).liftForEachVars();
     }
@@ -253,45 +533,14 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
     }
 
     private void moveNew() throws AnalyzerException {
-        SourceInterpreter i = new SourceInterpreter();
-        Analyzer<SourceValue> a = new Analyzer<SourceValue>(i);
-        a.analyze(className, this);
-
-        HashMap<AbstractInsnNode, MethodInsnNode> movable = new HashMap<AbstractInsnNode, MethodInsnNode>();
-
-        Frame<SourceValue>[] frames = a.getFrames();
-        for (int j = 0; j < methods.size(); j++) {
-            MethodInsnNode mnode = (MethodInsnNode) methods.get(j);
-            // require to move NEW instruction
-            int n = instructions.indexOf(mnode);
-            Frame<SourceValue> f = frames[n];
-            Type[] args = Type.getArgumentTypes(mnode.desc);
-
-            SourceValue v = (SourceValue) f.getStack(f.getStackSize() - args.length - 1);
-            Set<AbstractInsnNode> insns = v.insns;
-            for (AbstractInsnNode ins : insns) {
-                if (ins.getOpcode() == NEW) {
-                    movable.put(ins, mnode);
-                } else {
-                    // other known patterns
-                    int n1 = instructions.indexOf(ins);
-                    if (ins.getOpcode() == DUP) { // <init> with params
-                        AbstractInsnNode ins1 = instructions.get(n1 - 1);
-                        if (ins1.getOpcode() == NEW) {
-                            movable.put(ins1, mnode);
-                        }
-                    } else if (ins.getOpcode() == SWAP) {  // in exception handler
-                        AbstractInsnNode ins1 = instructions.get(n1 - 1);
-                        AbstractInsnNode ins2 = instructions.get(n1 - 2);
-                        if (ins1.getOpcode() == DUP_X1 && ins2.getOpcode() == NEW) {
-                            movable.put(ins2, mnode);
-                        }
-                    }
-                }
-            }
+        Map<AbstractInsnNode, MethodInsnNode> movable = findMovableNew();
+        if (null == movable) {
+            movable = analyzeMovableNew();
         }
 
         int updateMaxStack = 0;
+        // Temporary variables are placed after method's locals and StackRecorder variable
+        int tempVarOffset = maxLocals + 1;
         for (Map.Entry<AbstractInsnNode, MethodInsnNode> e : movable.entrySet()) {
             AbstractInsnNode node1 = e.getKey();
             int n1 = instructions.indexOf(node1);
@@ -313,7 +562,7 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
             MethodInsnNode mnode = (MethodInsnNode) e.getValue();
             AbstractInsnNode nm = mnode;
 
-            int varOffset = stackRecorderVar + 1;
+            int varOffset = tempVarOffset;
             Type[] args = Type.getArgumentTypes(mnode.desc);
 
 
@@ -405,6 +654,102 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
         maxStack += updateMaxStack;
     }
 
+    /**
+     * Places labels before NEW instructions, stack map frames refer to uninitialized 
+     * objects by these labels
+     */
+    private void labelNew() {
+        for (AbstractInsnNode node = instructions.getFirst(); node != null; node = node.getNext()) {
+            if (node.getOpcode() == NEW && !(node.getPrevious() instanceof LabelNode)) {
+                instructions.insertBefore(node, new LabelNode());
+            }
+        }
+    }
+
+    /**
+     * Matches NEW instructions with constructor calls by the shape of the code produced by 
+     * compilers: NEW, arguments, INVOKESPECIAL &lt;init&gt;, where the nested object creations are 
+     * properly nested. Only uninitialized objects that are on the stack at guarded call sites 
+     * should be moved, so most methods need no changes and no data-flow analysis at all.
+     * 
+     * @return NEW instructions to move, or null if the code doesn't follow the pattern 
+     * and the full analysis is necessary
+     */
+    private Map<AbstractInsnNode, MethodInsnNode> findMovableNew() {
+        Map<AbstractInsnNode, MethodInsnNode> movable = new HashMap<AbstractInsnNode, MethodInsnNode>();
+        Set<AbstractInsnNode> guardedNodes = new HashSet<AbstractInsnNode>(nodes);
+        List<TypeInsnNode> pending = new ArrayList<TypeInsnNode>();
+        // Number of the outermost pending NEW-s that have guarded call sites among arguments
+        int guarded = 0;
+        for (AbstractInsnNode insn = instructions.getFirst(); null != insn; insn = insn.getNext()) {
+            int opcode = insn.getOpcode();
+            if (opcode == JSR || opcode == RET) {
+                return null;
+            }
+            if (opcode == NEW) {
+                pending.add((TypeInsnNode)insn);
+                continue;
+            }
+            int depth = pending.size();
+            if (guardedNodes.contains(insn)) {
+                // All pending uninitialized objects are on the stack
+                guarded = depth;
+            }
+            if (opcode == INVOKESPECIAL && "<init>".equals(((MethodInsnNode)insn).name) && depth > 0) {
+                TypeInsnNode newInsn = pending.remove(depth - 1);
+                if (!newInsn.desc.equals(((MethodInsnNode)insn).owner)) {
+                    return null;
+                }
+                if (guarded == depth) {
+                    movable.put(newInsn, (MethodInsnNode)insn);
+                    guarded--;
+                }
+            }
+        }
+        return pending.isEmpty() ? movable : null;
+    }
+    
+    private Map<AbstractInsnNode, MethodInsnNode> analyzeMovableNew() throws AnalyzerException {
+        SourceInterpreter i = new SourceInterpreter();
+        Analyzer<SourceValue> a = new Analyzer<SourceValue>(i);
+        a.analyze(className, this);
+
+        Map<AbstractInsnNode, MethodInsnNode> movable = new HashMap<AbstractInsnNode, MethodInsnNode>();
+
+        Frame<SourceValue>[] frames = a.getFrames();
+        for (int j = 0; j < methods.size(); j++) {
+            MethodInsnNode mnode = (MethodInsnNode) methods.get(j);
+            // require to move NEW instruction
+            int n = instructions.indexOf(mnode);
+            Frame<SourceValue> f = frames[n];
+            Type[] args = Type.getArgumentTypes(mnode.desc);
+
+            SourceValue v = (SourceValue) f.getStack(f.getStackSize() - args.length - 1);
+            Set<AbstractInsnNode> insns = v.insns;
+            for (AbstractInsnNode ins : insns) {
+                if (ins.getOpcode() == NEW) {
+                    movable.put(ins, mnode);
+                } else {
+                    // other known patterns
+                    int n1 = instructions.indexOf(ins);
+                    if (ins.getOpcode() == DUP) { // <init> with params
+                        AbstractInsnNode ins1 = instructions.get(n1 - 1);
+                        if (ins1.getOpcode() == NEW) {
+                            movable.put(ins1, mnode);
+                        }
+                    } else if (ins.getOpcode() == SWAP) {  // in exception handler
+                        AbstractInsnNode ins1 = instructions.get(n1 - 1);
+                        AbstractInsnNode ins2 = instructions.get(n1 - 2);
+                        if (ins1.getOpcode() == DUP_X1 && ins2.getOpcode() == NEW) {
+                            movable.put(ins2, mnode);
+                        }
+                    }
+                }
+            }
+        }
+        return movable;
+    }
+
     private boolean needsFrameGuard(int opcode, String owner, String name, String desc) {
         if (owner.startsWith("java/") || owner.startsWith("javax/")) {
             //System.out.println("SKIP:: " + owner + "." + name + desc);
@@ -421,11 +766,6 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
             return false;
         }
 
-        if (opcode == Opcodes.INVOKEDYNAMIC) {
-            // TODO verify CallSite to be continuable?
-            return true;
-        }
-
         if (opcode == Opcodes.INVOKEINTERFACE ||
             opcode == Opcodes.INVOKESPECIAL   ||
             opcode == Opcodes.INVOKESTATIC    ||
@@ -441,10 +781,28 @@ class ContinuableMethodNode extends MethodNode implements Opcodes {
         return false;
     }
 
+    private static boolean needsFrameGuard(Handle bsm) {
+        // Any other bootstrap, JDK ones included, may link the call site to continuable 
+        // method: stateless method handle frames just forward the call on resume
+        return !NON_CONTINUABLE_BOOTSTRAPS.contains(bsm.getOwner() + '.' + bsm.getName());
+    }
+
     private static final String CONTINUATION_CLASS_INTERNAL_NAME = "org/apache/commons/javaflow/api/Continuation";
     private static final Set<String> CONTINUATION_CLASS_CONTINUABLE_METHODS = new HashSet<String>(Arrays.asList(
         "suspend", "again", "cancel" 
         // we are suspending here with potential resume later
         // "startWith", "continueWith", "exit" are unnecessary
     ));
+    
+    // Bootstrap methods of call sites that only produce values (strings, lambda instances, 
+    // switch indexes, record methods results) and never invoke continuable code
+    private static final Set<String> NON_CONTINUABLE_BOOTSTRAPS = new HashSet<String>(Arrays.asList(
+        "java/lang/invoke/StringConcatFactory.makeConcat",
+        "java/lang/invoke/StringConcatFactory.makeConcatWithConstants",
+        "java/lang/invoke/LambdaMetafactory.metafactory",
+        "java/lang/invoke/LambdaMetafactory.altMetafactory",
+        "java/lang/runtime/ObjectMethods.bootstrap",
+        "java/lang/runtime/SwitchBootstraps.typeSwitch",
+        "java/lang/runtime/SwitchBootstraps.enumSwitch"
+    ));
 }
\ No newline at end of file
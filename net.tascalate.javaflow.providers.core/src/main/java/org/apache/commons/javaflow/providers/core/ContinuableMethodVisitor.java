@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2022 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -27,6 +27,7 @@ import static net.tascalate.asmx.Opcodes.ACC_STATIC;
 import static net.tascalate.asmx.Opcodes.ACONST_NULL;
 import static net.tascalate.asmx.Opcodes.ALOAD;
 import static net.tascalate.asmx.Opcodes.ASTORE;
+import static net.tascalate.asmx.Opcodes.BIPUSH;
 import static net.tascalate.asmx.Opcodes.CHECKCAST;
 import static net.tascalate.asmx.Opcodes.DCONST_0;
 import static net.tascalate.asmx.Opcodes.DUP;
@@ -52,6 +53,7 @@ import static net.tascalate.asmx.Opcodes.POP2;
 import static net.tascalate.asmx.Opcodes.SIPUSH;
 import static net.tascalate.asmx.Opcodes.SWAP;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import net.tascalate.asmx.Handle;
@@ -69,23 +71,28 @@ class ContinuableMethodVisitor extends MethodVisitor {
     private static final String STACK_RECORDER = "org/apache/commons/javaflow/core/StackRecorder";
     private static final String POP_METHOD = "pop";
     private static final String PUSH_METHOD = "push";
+    private static final String TAKE_METHOD = "take";
+    private static final String PUT_METHOD = "put";
+    private static final Type OBJECT_TYPE = Type.getType(Object.class);
 
     private final ContinuableMethodNode methodNode;
     private final Label startLabel = new Label();
     private final List<Label> labels;
     private final List<AbstractInsnNode> nodes;
     private final int stackRecorderVar;
+    private final StackMapMethodVisitor frames;
 
     private int currentIndex = 0;
     private Frame<?> currentFrame = null;
 
 
-    ContinuableMethodVisitor(int api, ContinuableMethodNode a) {
-        super(api, a.mv);
+    ContinuableMethodVisitor(int api, ContinuableMethodNode a, StackMapMethodVisitor frames) {
+        super(api, null == frames ? a.mv : frames);
         this.methodNode = a;
         this.labels = a.labels;
         this.nodes = a.nodes;
         this.stackRecorderVar = a.stackRecorderVar;
+        this.frames = frames;
     }
 
     private static Type[] getArgumentTypes(AbstractInsnNode node) {
@@ -119,10 +126,15 @@ class ContinuableMethodVisitor extends MethodVisitor {
         // verify if restoring
         Label l0 = new Label();
 
-        // PC: StackRecorder stackRecorder = StackRecorder.get();
-        mv.visitMethodInsn(INVOKESTATIC, STACK_RECORDER, "get", "()L" + STACK_RECORDER + ";", false);
-        mv.visitInsn(DUP);
-        mv.visitVarInsn(ASTORE, stackRecorderVar);
+        if (methodNode.hasStackRecorderParameter()) {
+            // StackRecorder is passed by the caller
+            mv.visitVarInsn(ALOAD, stackRecorderVar);
+        } else {
+            // PC: StackRecorder stackRecorder = StackRecorder.get();
+            mv.visitMethodInsn(INVOKESTATIC, STACK_RECORDER, "get", "()L" + STACK_RECORDER + ";", false);
+            mv.visitInsn(DUP);
+            mv.visitVarInsn(ASTORE, stackRecorderVar);
+        }
         mv.visitLabel(startLabel);
 
         // PC: if (stackRecorder != null && !stackRecorder.isRestoring) {  
@@ -140,17 +152,42 @@ class ContinuableMethodVisitor extends MethodVisitor {
         for (int i = 0; i < fsize; i++) {
             Label frameLabel = (Label) labels.get(i);
             mv.visitLabel(restoreLabels[i]);
+            visitEntryFrame();
 
             AbstractInsnNode mnode = (AbstractInsnNode) nodes.get(i);
             //Frame frame = analyzer.getFrames()[methodNode.getIndex(mnode)];
             Frame<?> frame = methodNode.getFrameByNode(mnode);
 
+            // stack
+            Type[] paramTypes = getArgumentTypes(mnode);
+            int argSize = paramTypes.length;
+            int ownerSize = getOwnerSize(mnode);
+            int initSize = mnode.getOpcode() == INVOKESPECIAL && MethodInsnNode.class.cast(mnode).name.equals("<init>") ? 2 : 0;
+            int ssize = frame.getStackSize();
+            int savedStackSize = ssize - argSize - ownerSize - initSize;
+            if (null != frames) {
+                // Falls back to frames computed by the class writer if values can't be restored
+                frames.checkSavedValues(frame, ssize - argSize);
+            }
+            
+            // check once that all saved values of the frame are available
+            int lsize = frame.getLocals();
+            int primitives = countSavedLocals(frame, stackRecorderVar, false) + countSavedStack(frame, savedStackSize, false);
+            int objects    = countSavedLocals(frame, stackRecorderVar, true)  + countSavedStack(frame, savedStackSize, true);
+            if (primitives + objects > 0) {
+                mv.visitVarInsn(ALOAD, stackRecorderVar);
+                pushInt(primitives);
+                pushInt(objects);
+                mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, "requireFrame", "(II)V", false);
+            }
+
             // for each local variable store the value in locals popping it from the stack!
             // locals
-            int lsize = frame.getLocals();
             for (int j = lsize - 1; j >= 0; j--) {
                 BasicValue value = (BasicValue) frame.getLocal(j);
-                if (isNull(value)) {
+                if (j == stackRecorderVar) {
+                    // StackRecorder parameter of the synthetic overload is never saved
+                } else if (isNull(value)) {
                     mv.visitInsn(ACONST_NULL);
                     mv.visitVarInsn(ASTORE, j);
                 } else if (value == BasicValue.UNINITIALIZED_VALUE) {
@@ -161,18 +198,12 @@ class ContinuableMethodVisitor extends MethodVisitor {
                     mv.visitVarInsn(ALOAD, stackRecorderVar);
                     Type type = value.getType();
                     if (value.isReference()) {
-                        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, POP_METHOD + "Object", "()Ljava/lang/Object;", false);
-                        Type t = value.getType();
-                        String desc = t.getDescriptor();
-                        if (desc.charAt(0) == '[') {
-                            mv.visitTypeInsn(CHECKCAST, desc);
-                        } else {
-                            mv.visitTypeInsn(CHECKCAST, t.getInternalName());
-                        }
+                        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, TAKE_METHOD + "Object", "()Ljava/lang/Object;", false);
+                        checkCast(value.getType());
                         mv.visitVarInsn(ASTORE, j);
 
                     } else {
-                        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPopMethod(type), "()" + type.getDescriptor(), false);
+                        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getTakeMethod(type), "()" + type.getDescriptor(), false);
                         mv.visitVarInsn(type.getOpcode(ISTORE), j);
                     }
                 }
@@ -188,14 +219,7 @@ class ContinuableMethodVisitor extends MethodVisitor {
                 }
             }
 
-            // stack
-            Type[] paramTypes = getArgumentTypes(mnode);
-            int argSize = paramTypes.length;
-            int ownerSize = getOwnerSize(mnode);
-            int initSize = mnode.getOpcode() == INVOKESPECIAL && MethodInsnNode.class.cast(mnode).name.equals("<init>") ? 2 : 0;
-            int ssize = frame.getStackSize();
-
-            for (int j = 0; j < ssize - argSize - ownerSize - initSize; j++) {
+            for (int j = 0; j < savedStackSize; j++) {
                 BasicValue value = (BasicValue) frame.getStack(j);
                 if (isNull(value)) {
                     mv.visitInsn(ACONST_NULL);
@@ -205,12 +229,12 @@ class ContinuableMethodVisitor extends MethodVisitor {
                     // TODO ??
                 } else if (value.isReference()) {
                     mv.visitVarInsn(ALOAD, stackRecorderVar);
-                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, POP_METHOD + "Object", "()Ljava/lang/Object;", false);
-                    mv.visitTypeInsn(CHECKCAST, value.getType().getInternalName());
+                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, TAKE_METHOD + "Object", "()Ljava/lang/Object;", false);
+                    checkCast(value.getType());
                 } else {
                     Type type = value.getType();
                     mv.visitVarInsn(ALOAD, stackRecorderVar);
-                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPopMethod(type), "()" + type.getDescriptor(), false);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getTakeMethod(type), "()" + type.getDescriptor(), false);
                 }
             }
 
@@ -240,6 +264,13 @@ class ContinuableMethodVisitor extends MethodVisitor {
         // PC: }
         // end of start block
         mv.visitLabel(l0);
+        visitEntryFrame();
+    }
+    
+    private void visitEntryFrame() {
+        if (null != frames) {
+            frames.visitFrameOf(methodNode.instructions.getFirst());
+        }
     }
 
     @Override
@@ -260,7 +291,16 @@ class ContinuableMethodVisitor extends MethodVisitor {
 
     @Override
     public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean intf) {
-        mv.visitMethodInsn(opcode, owner, name, desc, intf);
+        if (methodNode.isDirectCall(opcode, owner, name, desc)) {
+            // PC: name(args..., stackRecorder)
+            mv.visitVarInsn(ALOAD, stackRecorderVar);
+            mv.visitMethodInsn(
+                opcode == INVOKESTATIC ? INVOKESTATIC : INVOKESPECIAL, 
+                owner, name, IContinuableClassInfo.directMethodDescriptor(desc), false
+            );
+        } else {
+            mv.visitMethodInsn(opcode, owner, name, desc, intf);
+        }
         visitCall(opcode, desc);
     }
 
@@ -292,67 +332,11 @@ class ContinuableMethodVisitor extends MethodVisitor {
             int argSize = params.length;
             int ownerSize = opcode == INVOKESTATIC || opcode == INVOKEDYNAMIC ? 0 : 1;  // TODO
             int ssize = currentFrame.getStackSize() - argSize - ownerSize;
-            for (int i = ssize - 1; i >= 0; i--) {
-                BasicValue value = (BasicValue) currentFrame.getStack(i);
-                if (isNull(value)) {
-                    mv.visitInsn(POP);
-                } else if (value == BasicValue.UNINITIALIZED_VALUE) {
-                    // TODO ??
-                } else if (value.isReference()) {
-                    mv.visitVarInsn(ALOAD, stackRecorderVar);
-                    mv.visitInsn(SWAP);
-                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, PUSH_METHOD + "Object", "(Ljava/lang/Object;)V", false);
-                } else {
-                    Type type = value.getType();
-                    if (type.getSize() > 1) {
-                        mv.visitInsn(ACONST_NULL); // dummy stack entry
-                        mv.visitVarInsn(ALOAD, stackRecorderVar);
-                        mv.visitInsn(DUP2_X2);  // swap2 for long/double
-                        mv.visitInsn(POP2);
-                        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPushMethod(type), "(" + type.getDescriptor() + ")V", false);
-                        mv.visitInsn(POP);  // remove dummy stack entry
-                    } else {
-                        mv.visitVarInsn(ALOAD, stackRecorderVar);
-                        mv.visitInsn(SWAP);
-                        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPushMethod(type), "(" + type.getDescriptor() + ")V", false);
-                    }
-                }
+            
+            if (!captureOutOfLine(ssize)) {
+                captureInline(ssize);
             }
 
-            boolean isInstanceMethod = (methodNode.access & ACC_STATIC) == 0;
-            if (isInstanceMethod) {
-                mv.visitVarInsn(ALOAD, stackRecorderVar);
-                mv.visitVarInsn(ALOAD, 0);
-                mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, PUSH_METHOD + "Reference", "(Ljava/lang/Object;)V", false);
-            }
-
-            // save locals
-            int fsize = currentFrame.getLocals();
-            for (int j = 0; j < fsize; j++) {
-                BasicValue value = (BasicValue) currentFrame.getLocal(j);
-                if (isNull(value)) {
-                    // no need to save null
-                } else if (value == BasicValue.UNINITIALIZED_VALUE) {
-                    // no need to save uninitialized objects
-                } else if (value.isReference()) {
-                    mv.visitVarInsn(ALOAD, stackRecorderVar);
-                    mv.visitVarInsn(ALOAD, j);
-                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, PUSH_METHOD + "Object", "(Ljava/lang/Object;)V", false);
-                } else {
-                    mv.visitVarInsn(ALOAD, stackRecorderVar);
-                    Type type = value.getType();
-                    mv.visitVarInsn(type.getOpcode(ILOAD), j);
-                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPushMethod(type), "(" + type.getDescriptor() + ")V", false);
-                }
-            }
-
-            mv.visitVarInsn(ALOAD, stackRecorderVar);
-            if (currentIndex <= 5)
-                mv.visitInsn(ICONST_0 + currentIndex);
-            else
-                mv.visitIntInsn(SIPUSH, currentIndex);
-            mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, "pushInt", "(I)V", false);
-
             if (currentFrame instanceof MonitoringFrame) {
                 int[] monitoredLocals = ((MonitoringFrame<?>) currentFrame).getMonitored();
                 //System.out.println(System.identityHashCode(currentFrame)+" Monitored locals "+monitoredLocals.length);
@@ -367,12 +351,152 @@ class ContinuableMethodVisitor extends MethodVisitor {
             pushDefault(methodReturnType);
             mv.visitInsn(methodReturnType.getOpcode(IRETURN));
             mv.visitLabel(fl);
+            if (null != frames) {
+                frames.visitFrameAfter(currentFrame, ssize, returnType);
+            }
 
             currentIndex++;
             currentFrame = null;
         }
     }
 
+    private void captureInline(int ssize) {
+        // reserve space for all values of the frame at once, +1 primitive is for the call site index
+        mv.visitVarInsn(ALOAD, stackRecorderVar);
+        pushInt(countSavedLocals(currentFrame, stackRecorderVar, false) + countSavedStack(currentFrame, ssize, false) + 1);
+        pushInt(countSavedLocals(currentFrame, stackRecorderVar, true) + countSavedStack(currentFrame, ssize, true));
+        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, "reserveFrame", "(II)V", false);
+        
+        for (int i = ssize - 1; i >= 0; i--) {
+            BasicValue value = (BasicValue) currentFrame.getStack(i);
+            if (isNull(value)) {
+                mv.visitInsn(POP);
+            } else if (value == BasicValue.UNINITIALIZED_VALUE) {
+                // TODO ??
+            } else if (value == BasicValue.RETURNADDRESS_VALUE) {
+                // TODO ??
+            } else if (value.isReference()) {
+                mv.visitVarInsn(ALOAD, stackRecorderVar);
+                mv.visitInsn(SWAP);
+                mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, PUT_METHOD + "Object", "(Ljava/lang/Object;)V", false);
+            } else {
+                Type type = value.getType();
+                if (type.getSize() > 1) {
+                    mv.visitInsn(ACONST_NULL); // dummy stack entry
+                    mv.visitVarInsn(ALOAD, stackRecorderVar);
+                    mv.visitInsn(DUP2_X2);  // swap2 for long/double
+                    mv.visitInsn(POP2);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPutMethod(type), "(" + type.getDescriptor() + ")V", false);
+                    mv.visitInsn(POP);  // remove dummy stack entry
+                } else {
+                    mv.visitVarInsn(ALOAD, stackRecorderVar);
+                    mv.visitInsn(SWAP);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPutMethod(type), "(" + type.getDescriptor() + ")V", false);
+                }
+            }
+        }
+
+        boolean isInstanceMethod = (methodNode.access & ACC_STATIC) == 0;
+        if (isInstanceMethod) {
+            mv.visitVarInsn(ALOAD, stackRecorderVar);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, PUSH_METHOD + "Reference", "(Ljava/lang/Object;)V", false);
+        }
+
+        // save locals
+        int fsize = currentFrame.getLocals();
+        for (int j = 0; j < fsize; j++) {
+            BasicValue value = (BasicValue) currentFrame.getLocal(j);
+            if (j == stackRecorderVar) {
+                // no need to save StackRecorder parameter
+            } else if (isNull(value)) {
+                // no need to save null
+            } else if (value == BasicValue.UNINITIALIZED_VALUE) {
+                // no need to save uninitialized objects
+            } else if (value == BasicValue.RETURNADDRESS_VALUE) {
+                // not restored as well
+            } else if (value.isReference()) {
+                mv.visitVarInsn(ALOAD, stackRecorderVar);
+                mv.visitVarInsn(ALOAD, j);
+                mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, PUT_METHOD + "Object", "(Ljava/lang/Object;)V", false);
+            } else {
+                mv.visitVarInsn(ALOAD, stackRecorderVar);
+                Type type = value.getType();
+                mv.visitVarInsn(type.getOpcode(ILOAD), j);
+                mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, getPutMethod(type), "(" + type.getDescriptor() + ")V", false);
+            }
+        }
+
+        mv.visitVarInsn(ALOAD, stackRecorderVar);
+        pushInt(currentIndex);
+        mv.visitMethodInsn(INVOKEVIRTUAL, STACK_RECORDER, "putInt", "(I)V", false);
+    }
+    
+    private boolean captureOutOfLine(int ssize) {
+        CaptureHelpers captureHelpers = methodNode.captureHelpers;
+        if (null == captureHelpers) {
+            return false;
+        }
+        
+        StringBuilder kinds = new StringBuilder();
+        List<Type> types = new ArrayList<Type>();
+        int slots = 2; // StackRecorder and call site index
+        for (int i = 0; i < ssize; i++) {
+            BasicValue value = (BasicValue) currentFrame.getStack(i);
+            if (isNull(value)) {
+                kinds.append(CaptureHelpers.STACK_SKIPPED);
+                types.add(OBJECT_TYPE);
+            } else if (value == BasicValue.UNINITIALIZED_VALUE || value == BasicValue.RETURNADDRESS_VALUE) {
+                // Can't be passed as a parameter
+                return false;
+            } else {
+                kinds.append(CaptureHelpers.STACK_SAVED);
+                types.add(value.isReference() ? OBJECT_TYPE : value.getType());
+            }
+            slots += types.get(types.size() - 1).getSize();
+        }
+        
+        boolean isInstanceMethod = (methodNode.access & ACC_STATIC) == 0;
+        if (isInstanceMethod) {
+            kinds.append(CaptureHelpers.OWNER);
+            types.add(OBJECT_TYPE);
+            slots++;
+        }
+        
+        int fsize = currentFrame.getLocals();
+        List<Integer> locals = new ArrayList<Integer>();
+        for (int j = 0; j < fsize; j++) {
+            BasicValue value = (BasicValue) currentFrame.getLocal(j);
+            if (j != stackRecorderVar && (isSaved(value, true) || isSaved(value, false))) {
+                kinds.append(CaptureHelpers.LOCAL_SAVED);
+                types.add(value.isReference() ? OBJECT_TYPE : value.getType());
+                slots += value.getSize();
+                locals.add(j);
+            }
+        }
+        
+        if (slots > 255) {
+            // Too many parameters
+            return false;
+        }
+        
+        String helperDesc = captureHelpers.descriptorOf(types);
+        String helperName = captureHelpers.nameOf(kinds.toString(), helperDesc);
+        
+        // saved stack values are already on the operand stack
+        if (isInstanceMethod) {
+            mv.visitVarInsn(ALOAD, 0);
+        }
+        for (int j : locals) {
+            BasicValue value = (BasicValue) currentFrame.getLocal(j);
+            mv.visitVarInsn(value.isReference() ? ALOAD : value.getType().getOpcode(ILOAD), j);
+        }
+        mv.visitVarInsn(ALOAD, stackRecorderVar);
+        pushInt(currentIndex);
+        mv.visitMethodInsn(INVOKESTATIC, captureHelpers.className(), helperName, helperDesc, false);
+        return true;
+    }
+
     @Override
     public void visitMaxs(int maxStack, int maxLocals) {
         Label endLabel = new Label();
@@ -384,6 +508,33 @@ class ContinuableMethodVisitor extends MethodVisitor {
         //was mv.visitMaxs(0, 0);
     }
 
+    private static int countSavedLocals(Frame<?> frame, int stackRecorderVar, boolean references) {
+        int result = 0;
+        for (int j = frame.getLocals() - 1; j >= 0; j--) {
+            if (j != stackRecorderVar && isSaved((BasicValue) frame.getLocal(j), references)) {
+                result++;
+            }
+        }
+        return result;
+    }
+    
+    private static int countSavedStack(Frame<?> frame, int size, boolean references) {
+        int result = 0;
+        for (int j = size - 1; j >= 0; j--) {
+            if (isSaved((BasicValue) frame.getStack(j), references)) {
+                result++;
+            }
+        }
+        return result;
+    }
+    
+    private static boolean isSaved(BasicValue value, boolean references) {
+        if (isNull(value) || value == BasicValue.UNINITIALIZED_VALUE || value == BasicValue.RETURNADDRESS_VALUE) {
+            return false;
+        }
+        return value.isReference() == references;
+    }
+
     private static boolean isNull(BasicValue value) {
         if (null == value)
             return true;
@@ -393,6 +544,31 @@ class ContinuableMethodVisitor extends MethodVisitor {
         return "Lnull;".equals(type.getDescriptor()); 
     }
 
+    private void pushInt(int value) {
+        pushInt(mv, value);
+    }
+    
+    static void pushInt(MethodVisitor mv, int value) {
+        if (value >= -1 && value <= 5) {
+            mv.visitInsn(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            mv.visitIntInsn(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            mv.visitIntInsn(SIPUSH, value);
+        } else {
+            mv.visitLdcInsn(Integer.valueOf(value));
+        }
+    }
+    
+    private void checkCast(Type type) {
+        if (type.getSort() == Type.ARRAY) {
+            mv.visitTypeInsn(CHECKCAST, type.getDescriptor());
+        } else if (!OBJECT_TYPE.equals(type)) {
+            // takeObject() already returns Object
+            mv.visitTypeInsn(CHECKCAST, type.getInternalName());
+        }
+    }
+
     private void pushDefault(Type type) {
         switch (type.getSort()) {
             case Type.VOID:
@@ -431,11 +607,11 @@ class ContinuableMethodVisitor extends MethodVisitor {
     };
 
 
-    private static String getPopMethod(Type type) {
-        return POP_METHOD + SUFFIXES[type.getSort()];
+    private static String getTakeMethod(Type type) {
+        return TAKE_METHOD + SUFFIXES[type.getSort()];
     }
 
-    private static String getPushMethod(Type type) {
-        return PUSH_METHOD + SUFFIXES[type.getSort()];
+    static String getPutMethod(Type type) {
+        return PUT_METHOD + SUFFIXES[type.getSort()];
     }
 }
\ No newline at end of file
@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2022 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -30,10 +30,12 @@ import net.tascalate.asmx.tree.analysis.SimpleVerifier;
 
 class FastClassVerifier extends SimpleVerifier {
     private final ClassHierarchy classHierarchy;
+    private final CommonSuperTypes commonSuperTypes;
     
-    FastClassVerifier(int api, ClassHierarchy classHierarchy) {
+    FastClassVerifier(int api, ClassHierarchy classHierarchy, CommonSuperTypes commonSuperTypes) {
         super(api, null, null, null, false);
         this.classHierarchy = classHierarchy;
+        this.commonSuperTypes = commonSuperTypes;
     }
     
     @Override
@@ -54,13 +56,17 @@ class FastClassVerifier extends SimpleVerifier {
             eu = u.getElementType();
             int dt = t.getDimensions();
             int du = u.getDimensions();
-            boolean isObject = et.equals(BasicValue.REFERENCE_VALUE.getType());
-            // u must be an array of equals dimension or bigger dimension if t is Object
-            if (dt == du || dt < du && isObject) {
-                // Ok
+            if (dt == du) {
+                // Arrays of different primitives are never assignable
+                if (et.getSort() != Type.OBJECT || eu.getSort() != Type.OBJECT) {
+                    return false;
+                }
             } else {
-                return false;
+                // u must be of bigger dimension if t is Object
+                return dt < du && isObjectType(et);
             }
+        } else if (u.getSort() == Type.ARRAY) {
+            return isArraySuperType(t);
         } else {
             et = t; 
             eu = u;
@@ -70,7 +76,7 @@ class FastClassVerifier extends SimpleVerifier {
         */
         // isAssignableFrom(Number, Integer) => getCommonSuperType(Integer, Number) == Number        
         // Use ClassHierarchy.isSubclass biased behavior (for performance)
-        Type commonType = classHierarchy.getCommonSuperType(eu, et);
+        Type commonType = commonSuperTypes.get(classHierarchy, eu, et);
         return commonType.equals(et);
 
     }
@@ -96,7 +102,7 @@ class FastClassVerifier extends SimpleVerifier {
                     if (isAssignableFrom(u, t)) {
                         return w;
                     }
-                    return new BasicValue(classHierarchy.getCommonSuperType(t, u));
+                    return new BasicValue(commonSuperType(t, u));
                 }
             }
             return BasicValue.UNINITIALIZED_VALUE;
@@ -104,6 +110,20 @@ class FastClassVerifier extends SimpleVerifier {
         return v;
     }
 
+    private Type commonSuperType(Type t, Type u) {
+        if (isArray(t) || isArray(u)) {
+            // Arrays share Object[]...[] for as many dimensions as both hold references 
+            int dt = referenceDimensions(t);
+            int du = referenceDimensions(u);
+            if (dt == du && t.getSort() == Type.ARRAY && u.getSort() == Type.ARRAY && 
+                t.getElementType().getSort() == Type.OBJECT && u.getElementType().getSort() == Type.OBJECT) {
+                return arrayOf(commonSuperTypes.get(classHierarchy, t.getElementType(), u.getElementType()), dt);
+            }
+            return arrayOf(OBJECT_TYPE, Math.min(dt, du));
+        }
+        return commonSuperTypes.get(classHierarchy, t, u);
+    }
+
     @Override
     protected Class<?> getClass(Type t) { 
         throw new UnsupportedOperationException();
@@ -119,4 +139,37 @@ class FastClassVerifier extends SimpleVerifier {
         throw new UnsupportedOperationException();
     }
 
+    private static boolean isArray(Type t) {
+        return t.getSort() == Type.ARRAY;
+    }
+    
+    private static int referenceDimensions(Type t) {
+        if (t.getSort() != Type.ARRAY) {
+            return 0;
+        }
+        int dimensions = t.getDimensions();
+        return t.getElementType().getSort() == Type.OBJECT ? dimensions : dimensions - 1; 
+    }
+    
+    private static Type arrayOf(Type elementType, int dimensions) {
+        if (dimensions == 0) {
+            return elementType;
+        }
+        StringBuilder descriptor = new StringBuilder();
+        for (int i = 0; i < dimensions; i++) {
+            descriptor.append('[');
+        }
+        return Type.getType(descriptor.append(elementType.getDescriptor()).toString());
+    }
+    
+    private static boolean isObjectType(Type t) {
+        return OBJECT_TYPE.equals(t);
+    }
+    
+    private static boolean isArraySuperType(Type t) {
+        String name = t.getInternalName();
+        return "java/lang/Object".equals(name) || "java/lang/Cloneable".equals(name) || "java/io/Serializable".equals(name);
+    }
+    
+    private static final Type OBJECT_TYPE = BasicValue.REFERENCE_VALUE.getType();
 }
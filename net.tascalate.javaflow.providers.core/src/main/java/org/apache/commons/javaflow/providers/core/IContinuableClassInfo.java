@@ -15,15 +15,24 @@
  */
 package org.apache.commons.javaflow.providers.core;
 
+import java.util.Collections;
 import java.util.Set;
 
+import net.tascalate.asmx.Opcodes;
+
 class IContinuableClassInfo implements ContinuableClassInfo {
     private boolean processed;
     private final Set<String> methods;
+    private final Set<String> directMethods;
 
     IContinuableClassInfo(boolean defaultProcessed, Set<String> methods) {
+        this(defaultProcessed, methods, Collections.<String>emptySet());
+    }
+    
+    IContinuableClassInfo(boolean defaultProcessed, Set<String> methods, Set<String> directMethods) {
         this.processed = defaultProcessed;
         this.methods = methods;
+        this.directMethods = directMethods;
     }
     
     public boolean isContinuableMethod(int access, String name, String desc, String signature) {
@@ -41,5 +50,30 @@ class IContinuableClassInfo implements ContinuableClassInfo {
     Set<String> continuableMethods() {
         return methods;
     }
+    
+    /**
+     * Continuable methods declared in this class that can't be overridden 
+     * (static, private, final or members of the final class). Every such 
+     * method gets a synthetic private overload with the trailing 
+     * {@link #STACK_RECORDER_DESCRIPTOR} parameter, so calls between 
+     * methods of this class may pass the current StackRecorder directly 
+     * instead of looking it up again.
+     * @return set of name + descriptor of methods
+     */
+    Set<String> directMethods() {
+        return directMethods;
+    }
+    
+    static String directMethodDescriptor(String desc) {
+        int idx = desc.lastIndexOf(')');
+        return desc.substring(0, idx) + STACK_RECORDER_DESCRIPTOR + desc.substring(idx);
+    }
+    
+    static int directMethodAccess(int access) {
+        return (access & (Opcodes.ACC_STATIC | Opcodes.ACC_SYNCHRONIZED | Opcodes.ACC_STRICT)) | 
+               Opcodes.ACC_PRIVATE | Opcodes.ACC_SYNTHETIC;
+    }
+    
+    static final String STACK_RECORDER_DESCRIPTOR = "Lorg/apache/commons/javaflow/core/StackRecorder;";
 
 }
\ No newline at end of file
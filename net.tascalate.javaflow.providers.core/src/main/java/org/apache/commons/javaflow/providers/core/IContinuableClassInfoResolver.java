@@ -25,17 +25,22 @@ import java.util.Map;
 import java.util.Set;
 
 import net.tascalate.asmx.ClassReader;
+import net.tascalate.asmx.Opcodes;
 import net.tascalate.asmx.Type;
 import net.tascalate.asmx.plus.AsmVersion;
 
+import org.apache.commons.javaflow.spi.ClassHeaderReader;
 import org.apache.commons.javaflow.spi.ClassMatcher;
+import org.apache.commons.javaflow.spi.FastByteArrayOutputStream;
 import org.apache.commons.javaflow.spi.ResourceLoader;
 
 class IContinuableClassInfoResolver implements ContinuableClassInfoResolver {
-    private final Map<String, IContinuableClassInfo> visitedClasses = new HashMap<String, IContinuableClassInfo>();
-    private final Set<String> processedAnnotations = new HashSet<String>();
-    private final Set<String> continuableAnnotations = new HashSet<String>();
+    // Resolved class infos and annotations are published to cciShared as soon as they are known,
+    // only the classes being re-transformed are kept aside until release
+    private final Map<String, IContinuableClassInfo> refreshedClasses = new HashMap<String, IContinuableClassInfo>();
     private final Set<String> refreshClasses = new HashSet<String>();
+    // Annotations which resolution is started by this resolver, stops cycles of meta-annotations
+    private final Set<String> processedAnnotations = new HashSet<String>();
     private final ResourceLoader resourceLoader;
     private final SharedContinuableClassInfos cciShared;
     
@@ -49,7 +54,8 @@ class IContinuableClassInfoResolver implements ContinuableClassInfoResolver {
         if (classInfo == null) {
             InputStream classBytes = resourceLoader.getResourceAsStream(classInternalName + ".class");
             try {
-                return resolveContinuableClassInfo(classInternalName, new ClassReader(classBytes));
+                byte[] bytes = readBytes(classBytes);
+                return resolveContinuableClassInfo(classInternalName, bytes, null);
             } finally {
                 if (null != classBytes) {
                     try { classBytes.close(); } catch (IOException exIgnore) {}
@@ -67,13 +73,15 @@ class IContinuableClassInfoResolver implements ContinuableClassInfoResolver {
             case UNSUPPORTED:
                 return false;
             case UNKNON:
-                markProcessedAnnotation(annotationClassDescriptor);
+                processedAnnotations.add(annotationClassDescriptor);
     
                 final Type type = Type.getType(annotationClassDescriptor);
+                boolean continuable = false;
                 try {
                     InputStream annotationBytes= resourceLoader.getResourceAsStream(type.getInternalName() + ".class");
                     try {
-                        return resolveContinuableAnnotation(annotationClassDescriptor, new ClassReader(annotationBytes));
+                        continuable = resolveContinuableAnnotation(new ClassReader(annotationBytes));
+                        return continuable;
                     } finally {
                         if (null != annotationBytes) {
                             try { annotationBytes.close(); } catch (IOException exIgnore) {}
@@ -81,6 +89,9 @@ class IContinuableClassInfoResolver implements ContinuableClassInfoResolver {
                     }
                 } catch (IOException ex) {
                     throw new RuntimeException(ex);
+                } finally {
+                    // Unavailable annotations are published as processed too, so they are not read again
+                    cciShared.publishAnnotation(annotationClassDescriptor, continuable);
                 }
             default:
                 throw new RuntimeException("Unknown annotation kind");
@@ -88,18 +99,27 @@ class IContinuableClassInfoResolver implements ContinuableClassInfoResolver {
     }
     
     public void release() {
-        cciShared.mergeWith(visitedClasses, processedAnnotations, continuableAnnotations);
+        if (!refreshedClasses.isEmpty()) {
+            cciShared.publishRefreshed(refreshedClasses);
+        }
     }
     
     public void reset(Collection<String> classNames) {
-        visitedClasses.keySet().removeAll(classNames);
+        refreshedClasses.keySet().removeAll(classNames);
         refreshClasses.addAll(classNames);
     }
     
-    IContinuableClassInfo resolve(String classInternalName, byte[] classBytes) {
+    /**
+     * Resolves the class being transformed with the same reader that is used for the transformation
+     * @param reader the reader of the class
+     * @param classBytes the class bytes 
+     * @return the class info, or null if the class has no continuable methods
+     */
+    IContinuableClassInfo resolve(ClassReader reader, byte[] classBytes) {
+        String classInternalName = reader.getClassName();
         IContinuableClassInfo classInfo = getResolved(classInternalName);
         if (classInfo == null) {
-            return resolveContinuableClassInfo(classInternalName, new ClassReader(classBytes));
+            return resolveContinuableClassInfo(classInternalName, classBytes, reader);
         } else {
             return unmask(classInfo);
         }
@@ -110,79 +130,125 @@ class IContinuableClassInfoResolver implements ContinuableClassInfoResolver {
     }
     
     private IContinuableClassInfo getResolved(String classInternalName) {
-        if (refreshClasses.contains(classInternalName)) {
-            return null;
-        }
-        IContinuableClassInfo result;
-        
-        result = visitedClasses.get(classInternalName);
+        IContinuableClassInfo result = refreshedClasses.get(classInternalName);
         if (null != result) {
             return result;
         }
-        
-        result = cciShared.getResolved(classInternalName);
-        if (null != result) {
-            return result;
+        if (refreshClasses.contains(classInternalName)) {
+            return null;
         }
-        
-        return null;
+        return cciShared.getResolved(classInternalName);
     }
 
-    private IContinuableClassInfo resolveContinuableClassInfo(String classInternalName, ClassReader reader) {
-        MaybeContinuableClassVisitor maybeContinuableClassVisitor = new MaybeContinuableClassVisitor(AsmVersion.CURRENT, this); 
-        reader.accept(maybeContinuableClassVisitor, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+    private IContinuableClassInfo resolveContinuableClassInfo(String classInternalName, byte[] classBytes, ClassReader reader) {
+        IContinuableClassInfo classInfo;
+        if (isNonContinuable(new ClassHeaderReader(classBytes))) {
+            classInfo = null;
+        } else {
+            MaybeContinuableClassVisitor maybeContinuableClassVisitor = new MaybeContinuableClassVisitor(AsmVersion.CURRENT, this); 
+            maybeContinuableClassVisitor.accept(null != reader ? reader : new ClassReader(classBytes));
+            classInfo = maybeContinuableClassVisitor.toContinuableClassInfo();
+        }
+        IContinuableClassInfo resolved = null != classInfo ? classInfo : UNSUPPORTED_CLASS_INFO;
+        if (refreshClasses.remove(classInternalName)) {
+            refreshedClasses.put(classInternalName, resolved);
+            return classInfo;
+        } else {
+            // Concurrent transformers may resolve the same class, the first one wins 
+            return unmask(cciShared.publishResolved(classInternalName, resolved));
+        }
+    }
 
-        IContinuableClassInfo classInfo = maybeContinuableClassVisitor.toContinuableClassInfo();
-        visitedClasses.put(classInternalName, null != classInfo ? classInfo : UNSUPPORTED_CLASS_INFO);
-        refreshClasses.remove(classInternalName);
-        return classInfo;
+    /**
+     * Quick negative check by the class header and methods' annotations only: 
+     * a class has continuable methods when at least one method is annotated with 
+     * continuable annotation or when continuable methods are inherited.
+     * Most classes are rejected here without parsing them by {@link ClassReader}.  
+     */
+    private boolean isNonContinuable(ClassHeaderReader header) {
+        if ((header.getAccess() & Opcodes.ACC_ANNOTATION) != 0) {
+            return true;
+        }
+        for (String annotation : header.getMethodAnnotations()) {
+            boolean continuable;
+            try {
+                continuable = isContinuableAnnotation(annotation);
+            } catch (RuntimeException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    // Ignore annotations that are not available at run-time,
+                    // like @Nonull from com.google.code.findbugs:jsr305
+                    continue;
+                } else {
+                    throw ex;
+                }
+            }
+            if (continuable) {
+                return false;
+            }
+        }
+        String superName = header.getSuperName();
+        if (null != superName && !OBJECT_CLASS_INTERNAL_NAME.equals(superName) && null != resolveParent(superName)) {
+            return false;
+        }
+        for (String superInterface : header.getInterfaces()) {
+            if (null != resolveParent(superInterface)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private IContinuableClassInfo resolveParent(String classInternalName) {
+        try {
+            return resolve(classInternalName);
+        } catch (IOException ex) {
+            throw new RuntimeException(ex);
+        }
     }
 
-    private boolean resolveContinuableAnnotation(String annotationClassDescriptor, ClassReader reader) {
+    private boolean resolveContinuableAnnotation(ClassReader reader) {
         MaybeContinuableAnnotationVisitor maybeContinuableAnnotationVisitor = new MaybeContinuableAnnotationVisitor(AsmVersion.CURRENT, this); 
         reader.accept(
             maybeContinuableAnnotationVisitor, 
             ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG
         );
 
-        if (maybeContinuableAnnotationVisitor.isContinuable()) {
-            markContinuableAnnotation(annotationClassDescriptor);
-            return true;
-        } else {
-            return false;
-        }
+        return maybeContinuableAnnotationVisitor.isContinuable();
     }
 
     private AnnotationProcessingState getAnnotationProcessingState(String annotationClassDescriptor) {
         // Check already resolved shared state first
-        if (cciShared.isContinuableAnnotation(annotationClassDescriptor)) {
-            return AnnotationProcessingState.SUPPORTED;
-        } else if (cciShared.isProcessedAnnotation(annotationClassDescriptor)) {
-            return AnnotationProcessingState.UNSUPPORTED;
+        Boolean continuable = cciShared.getProcessedAnnotation(annotationClassDescriptor);
+        if (null != continuable) {
+            return continuable.booleanValue() ? AnnotationProcessingState.SUPPORTED : AnnotationProcessingState.UNSUPPORTED;
         }
 
-        // Now check own state
-        if (continuableAnnotations.contains(annotationClassDescriptor))
-            return AnnotationProcessingState.SUPPORTED;
-        else if (processedAnnotations.contains(annotationClassDescriptor))
+        // Now check own state: resolution of the annotation is in progress
+        if (processedAnnotations.contains(annotationClassDescriptor))
             return AnnotationProcessingState.UNSUPPORTED;
         else
             return AnnotationProcessingState.UNKNON;
     }
 
-    private void markProcessedAnnotation(String annotationClassDescriptor) {
-        processedAnnotations.add(annotationClassDescriptor);
-    }
-
-    private void markContinuableAnnotation(String annotationClassDescriptor) {
-        markProcessedAnnotation(annotationClassDescriptor);
-        continuableAnnotations.add(annotationClassDescriptor);
+    private static byte[] readBytes(InputStream in) throws IOException {
+        if (null == in) {
+            throw new IOException("Class not found");
+        }
+        FastByteArrayOutputStream out = new FastByteArrayOutputStream(Math.max(in.available(), 1024));
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
     }
 
     private static IContinuableClassInfo unmask(IContinuableClassInfo classInfo) {
         return classInfo == UNSUPPORTED_CLASS_INFO ? null : classInfo;
     }
     
+    private static final String OBJECT_CLASS_INTERNAL_NAME = Type.getInternalName(Object.class);
+    
     private static final IContinuableClassInfo UNSUPPORTED_CLASS_INFO = 
         new IContinuableClassInfo(true, Collections.<String>emptySet());
     
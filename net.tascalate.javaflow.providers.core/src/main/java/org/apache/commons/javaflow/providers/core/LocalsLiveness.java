@@ -0,0 +1,169 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.providers.core;
+
+import static net.tascalate.asmx.Opcodes.*;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import net.tascalate.asmx.tree.AbstractInsnNode;
+import net.tascalate.asmx.tree.IincInsnNode;
+import net.tascalate.asmx.tree.InsnList;
+import net.tascalate.asmx.tree.JumpInsnNode;
+import net.tascalate.asmx.tree.LabelNode;
+import net.tascalate.asmx.tree.LookupSwitchInsnNode;
+import net.tascalate.asmx.tree.MethodNode;
+import net.tascalate.asmx.tree.TableSwitchInsnNode;
+import net.tascalate.asmx.tree.TryCatchBlockNode;
+import net.tascalate.asmx.tree.VarInsnNode;
+
+/**
+ * Backward liveness analysis of local variables. A local is live before
+ * an instruction when it may be read on some path starting at this instruction
+ * before being overwritten. Locals that are not live before a guarded call 
+ * are neither saved on capture nor restored on resume.
+ */
+class LocalsLiveness {
+    
+    private final InsnList instructions;
+    private final BitSet[] liveIn;
+    
+    private LocalsLiveness(InsnList instructions, BitSet[] liveIn) {
+        this.instructions = instructions;
+        this.liveIn = liveIn;
+    }
+    
+    /**
+     * Analyze method
+     * @param method a method to analyze
+     * @return liveness of locals or null if method uses subroutines (JSR/RET)
+     */
+    static LocalsLiveness analyze(MethodNode method) {
+        InsnList instructions = method.instructions;
+        AbstractInsnNode[] insns = instructions.toArray();
+        int size = insns.length;
+        
+        List<int[]> successors = new ArrayList<int[]>(size);
+        BitSet[] uses = new BitSet[size];
+        BitSet[] defs = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            AbstractInsnNode insn = insns[i];
+            int opcode = insn.getOpcode();
+            if (opcode == JSR || opcode == RET) {
+                return null;
+            }
+            uses[i] = new BitSet();
+            defs[i] = new BitSet();
+            if (insn instanceof VarInsnNode) {
+                int var = ((VarInsnNode)insn).var;
+                if (opcode >= ISTORE && opcode <= ASTORE) {
+                    defs[i].set(var);
+                } else {
+                    uses[i].set(var);
+                }
+            } else if (insn instanceof IincInsnNode) {
+                uses[i].set(((IincInsnNode)insn).var);
+            }
+            successors.add(successorsOf(instructions, insn, i, size));
+        }
+        
+        // Exception handler may be reached from any instruction of the try block
+        List<List<Integer>> handlers = new ArrayList<List<Integer>>(size);
+        for (int i = 0; i < size; i++) {
+            handlers.add(null);
+        }
+        if (null != method.tryCatchBlocks) {
+            for (TryCatchBlockNode tcb : method.tryCatchBlocks) {
+                int handler = instructions.indexOf(tcb.handler);
+                int end = instructions.indexOf(tcb.end);
+                for (int i = instructions.indexOf(tcb.start); i < end; i++) {
+                    List<Integer> list = handlers.get(i);
+                    if (null == list) {
+                        list = new ArrayList<Integer>(2);
+                        handlers.set(i, list);
+                    }
+                    list.add(handler);
+                }
+            }
+        }
+        
+        BitSet[] liveIn = new BitSet[size];
+        for (int i = 0; i < size; i++) {
+            liveIn[i] = new BitSet();
+        }
+        
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = size - 1; i >= 0; i--) {
+                BitSet live = new BitSet();
+                for (int s : successors.get(i)) {
+                    live.or(liveIn[s]);
+                }
+                live.andNot(defs[i]);
+                live.or(uses[i]);
+                List<Integer> exceptional = handlers.get(i);
+                if (null != exceptional) {
+                    for (int h : exceptional) {
+                        live.or(liveIn[h]);
+                    }
+                }
+                if (!live.equals(liveIn[i])) {
+                    liveIn[i] = live;
+                    changed = true;
+                }
+            }
+        }
+        return new LocalsLiveness(instructions, liveIn);
+    }
+    
+    boolean isLiveBefore(AbstractInsnNode insn, int local) {
+        return liveIn[instructions.indexOf(insn)].get(local);
+    }
+    
+    private static int[] successorsOf(InsnList instructions, AbstractInsnNode insn, int index, int size) {
+        int opcode = insn.getOpcode();
+        if (insn instanceof JumpInsnNode) {
+            int target = instructions.indexOf(((JumpInsnNode)insn).label);
+            if (opcode == GOTO || index + 1 >= size) {
+                return new int[] {target};
+            } else {
+                return new int[] {target, index + 1};
+            }
+        } else if (insn instanceof TableSwitchInsnNode) {
+            TableSwitchInsnNode node = (TableSwitchInsnNode)insn;
+            return targetsOf(instructions, node.dflt, node.labels);
+        } else if (insn instanceof LookupSwitchInsnNode) {
+            LookupSwitchInsnNode node = (LookupSwitchInsnNode)insn;
+            return targetsOf(instructions, node.dflt, node.labels);
+        } else if ((opcode >= IRETURN && opcode <= RETURN) || opcode == ATHROW || index + 1 >= size) {
+            return new int[0];
+        } else {
+            return new int[] {index + 1};
+        }
+    }
+    
+    private static int[] targetsOf(InsnList instructions, LabelNode dflt, List<LabelNode> labels) {
+        int[] result = new int[labels.size() + 1];
+        result[0] = instructions.indexOf(dflt);
+        for (int i = 0; i < labels.size(); i++) {
+            result[i + 1] = instructions.indexOf(labels.get(i));
+        }
+        return result;
+    }
+}
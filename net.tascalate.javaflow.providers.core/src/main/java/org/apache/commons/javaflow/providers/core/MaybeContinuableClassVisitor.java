@@ -22,6 +22,7 @@ import java.util.Map;
 import java.util.Set;
 
 import net.tascalate.asmx.AnnotationVisitor;
+import net.tascalate.asmx.ClassReader;
 import net.tascalate.asmx.ClassVisitor;
 import net.tascalate.asmx.MethodVisitor;
 import net.tascalate.asmx.Opcodes;
@@ -41,17 +42,42 @@ class MaybeContinuableClassVisitor extends ClassVisitor {
     private final Map<String, String> bridge2specialization = new HashMap<String, String>();
     private final Set<String> desugaredLambdaBodies = new HashSet<String>();
     private final Set<String> continuableMethods = new HashSet<String>();
+    private final Set<String> declaredMethods = new HashSet<String>();
+    private final Set<String> nonOverridableMethods = new HashSet<String>();
+    private final Set<String> directMethods = new HashSet<String>();
+    private final Map<String, MethodVisitor> linkedMethods = new HashMap<String, MethodVisitor>();
     
     private boolean isAnnotation = false;
+    private boolean isInterface = false;
+    private boolean isFinal = false;
 
     MaybeContinuableClassVisitor(int api, ContinuableClassInfoResolver cciResolver) {
         super(api);
         this.cciResolver = cciResolver;
     }
     
+    /**
+     * Visits the class without decoding method bodies: only synthetic accessors and bridges
+     * need code and they are visited in a separate pass that skips all other methods.
+     * So the class reader may be shared with the transformation that decodes every method 
+     * of the class once.
+     */
+    void accept(ClassReader reader) {
+        reader.accept(this, ClassReader.SKIP_CODE | ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        if (!linkedMethods.isEmpty()) {
+            reader.accept(new ClassVisitor(api) {
+                @Override
+                public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                    return linkedMethods.get(name + desc);
+                }
+            }, ClassReader.SKIP_FRAMES | ClassReader.SKIP_DEBUG);
+        }
+        resolveContinuableMethods();
+    }
+    
     IContinuableClassInfo toContinuableClassInfo() {
         if (isContinuable()) {
-            return new IContinuableClassInfo(isProcessed(), continuableMethods);
+            return new IContinuableClassInfo(isProcessed(), continuableMethods, directMethods);
         } else {
             return null;
         }
@@ -60,6 +86,8 @@ class MaybeContinuableClassVisitor extends ClassVisitor {
     @Override
     public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
         isAnnotation = (access & Opcodes.ACC_ANNOTATION) > 0;
+        isInterface = (access & Opcodes.ACC_INTERFACE) > 0;
+        isFinal = (access & Opcodes.ACC_FINAL) > 0;
         selfclass = name;
         superclass = superName;
         superinterfaces = interfaces;
@@ -86,13 +114,20 @@ class MaybeContinuableClassVisitor extends ClassVisitor {
             return null;
         }
 
+        declaredMethods.add(name + desc);
+
         boolean isSynthetic = (access & Opcodes.ACC_SYNTHETIC) != 0;
+        if (!isSynthetic && isNonOverridable(access, name, desc)) {
+            nonOverridableMethods.add(name + desc);
+        }
+        
         boolean isPackagePrivate = (access & (Opcodes.ACC_PRIVATE | Opcodes.ACC_PUBLIC | Opcodes.ACC_PROTECTED)) == 0;
         if (isSynthetic) {
             final boolean isAccessor = isPackagePrivate && name.startsWith("access$") && (access & Opcodes.ACC_STATIC) != 0;
             final boolean isBridge = (access & Opcodes.ACC_BRIDGE) != 0;
             if (isAccessor || isBridge) {
-                return new MethodVisitor(this.api) {
+                // Code is visited later, see accept(ClassReader)
+                linkedMethods.put(name + desc, new MethodVisitor(this.api) {
                     @Override
                     public void visitMethodInsn(int opcode, String owner, String targetName, String targetDesc, boolean intf) {
                         if (selfclass.equals(owner)) {
@@ -110,7 +145,8 @@ class MaybeContinuableClassVisitor extends ClassVisitor {
                     public void visitMethodInsn(int opcode, String owner, String name, String desc) {
                         this.visitMethodInsn(opcode, owner, name, desc, false);
                     }
-                };
+                });
+                return null;
             }
         }
 
@@ -145,8 +181,7 @@ class MaybeContinuableClassVisitor extends ClassVisitor {
         };
     }
 
-    @Override
-    public void visitEnd() {
+    private void resolveContinuableMethods() {
         for (Map.Entry<String, String> n2s : actual2accessor.entrySet() ) {
             if (continuableMethods.contains(n2s.getKey())) {
                 continuableMethods.add(n2s.getValue());
@@ -167,6 +202,35 @@ class MaybeContinuableClassVisitor extends ClassVisitor {
         if (!continuableMethods.isEmpty()) {
             continuableMethods.addAll(desugaredLambdaBodies);
         }
+        collectDirectMethods();
+    }
+    
+    private boolean isNonOverridable(int access, String name, String desc) {
+        if (isInterface || 
+            (access & (Opcodes.ACC_ABSTRACT | Opcodes.ACC_NATIVE)) != 0 || 
+            name.startsWith("<")) {
+            return false;
+        }
+        if (!isFinal && (access & (Opcodes.ACC_STATIC | Opcodes.ACC_PRIVATE | Opcodes.ACC_FINAL)) == 0) {
+            return false;
+        }
+        // The overload adds one more slot, keep within the limit of 255 parameter slots 
+        int slots = (Type.getArgumentsAndReturnSizes(desc) >> 2) - ((access & Opcodes.ACC_STATIC) != 0 ? 1 : 0);
+        return slots < 255;
+    }
+    
+    private void collectDirectMethods() {
+        for (String method : nonOverridableMethods) {
+            if (!continuableMethods.contains(method)) {
+                continue;
+            }
+            int idx = method.indexOf('(');
+            String directMethod = method.substring(0, idx) + 
+                                  IContinuableClassInfo.directMethodDescriptor(method.substring(idx)); 
+            if (!declaredMethods.contains(directMethod)) {
+                directMethods.add(method);
+            }
+        }
     }
 
     private boolean inheritanceChainVisited = false;
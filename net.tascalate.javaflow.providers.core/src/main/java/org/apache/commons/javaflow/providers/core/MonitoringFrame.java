@@ -20,8 +20,11 @@ import java.util.LinkedList;
 import java.util.List;
 
 import net.tascalate.asmx.Opcodes;
+import net.tascalate.asmx.Type;
 import net.tascalate.asmx.tree.AbstractInsnNode;
+import net.tascalate.asmx.tree.MethodInsnNode;
 import net.tascalate.asmx.tree.analysis.AnalyzerException;
+import net.tascalate.asmx.tree.analysis.BasicValue;
 import net.tascalate.asmx.tree.analysis.Frame;
 import net.tascalate.asmx.tree.analysis.Interpreter;
 import net.tascalate.asmx.tree.analysis.Value;
@@ -68,11 +71,34 @@ class MonitoringFrame<V extends Value> extends Frame<V> {
                 }
             }
 
+        } else if (insnOpcode == Opcodes.INVOKESPECIAL && "<init>".equals(((MethodInsnNode)insn).name)) {
+            String desc = ((MethodInsnNode)insn).desc;
+            V receiver = getStack(getStackSize() - Type.getArgumentTypes(desc).length - 1);
+            super.execute(insn, interpreter);
+            if (receiver instanceof StackMapVerifier.UninitializedValue) {
+                initialize(receiver);
+            }
         } else {
             super.execute(insn, interpreter);
         }
     }
 
+    // replaces all occurrences of the object created by NEW with the initialized one
+    @SuppressWarnings("unchecked")
+    private void initialize(V receiver) {
+        V initialized = (V)new BasicValue(((BasicValue)receiver).getType());
+        for (int i = getLocals() - 1; i >= 0; i--) {
+            if (getLocal(i) == receiver) {
+                setLocal(i, initialized);
+            }
+        }
+        for (int i = getStackSize() - 1; i >= 0; i--) {
+            if (getStack(i) == receiver) {
+                setStack(i, initialized);
+            }
+        }
+    }
+
     @Override
     public Frame<V> init(Frame<? extends V> frame) {
         super.init(frame);
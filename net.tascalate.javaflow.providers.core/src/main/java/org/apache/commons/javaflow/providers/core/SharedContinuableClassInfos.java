@@ -15,10 +15,9 @@
  */
 package org.apache.commons.javaflow.providers.core;
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.apache.commons.javaflow.spi.ClassMatcher;
 
@@ -26,67 +25,76 @@ import net.tascalate.asmx.Type;
 import net.tascalate.asmx.plus.ClassHierarchy;
 
 class SharedContinuableClassInfos {
-    private final Map<String, IContinuableClassInfo> visitedClasses;
-    private final Map<String, Boolean> processedAnnotations;
-    private final Map<String, Boolean> continuableAnnotations;
+    private final ConcurrentMap<String, IContinuableClassInfo> visitedClasses;
+    private final ConcurrentMap<String, Boolean> processedAnnotations;
 
     private final ClassHierarchy hierarhcy;
+    private final CommonSuperTypes commonSuperTypes;
     private final ClassMatcher veto;
     
     SharedContinuableClassInfos(ClassHierarchy hierarchy, ClassMatcher veto) {
         this.hierarhcy = hierarchy;
+        this.commonSuperTypes = new CommonSuperTypes(COMMON_SUPER_TYPES_CAPACITY);
         this.veto = veto;
         
         visitedClasses         = new ConcurrentHashMap<String, IContinuableClassInfo>();
-        /*
-        /* Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>())
-         * is not ok for the task -- addAll is not atomic 
-         */
         processedAnnotations   = new ConcurrentHashMap<String, Boolean>();
-        continuableAnnotations = new ConcurrentHashMap<String, Boolean>();
         
         processedAnnotations.put(CONTINUABLE_ANNOTATION_TYPE.getDescriptor(), Boolean.TRUE);
-        continuableAnnotations.put(CONTINUABLE_ANNOTATION_TYPE.getDescriptor(), Boolean.TRUE);
     }
  
     IContinuableClassInfo getResolved(String classInternalName) {
         return visitedClasses.get(classInternalName);
     }
     
-    boolean isProcessedAnnotation(String annotationClassDescriptor) {
-        return processedAnnotations.containsKey(annotationClassDescriptor);
-    }
-    
-    boolean isContinuableAnnotation(String annotationClassDescriptor) {
-        return continuableAnnotations.containsKey(annotationClassDescriptor);
+    /**
+     * Returns the result of the annotation resolution
+     * @param annotationClassDescriptor the annotation descriptor
+     * @return whether the annotation is continuable, or null if it was not processed yet
+     */
+    Boolean getProcessedAnnotation(String annotationClassDescriptor) {
+        return processedAnnotations.get(annotationClassDescriptor);
     }
     
     ClassHierarchy hierarchy() {
         return hierarhcy;
     }
     
+    CommonSuperTypes commonSuperTypes() {
+        return commonSuperTypes;
+    }
+    
     ClassMatcher veto() {
         return veto;
     }
 
-    /* synchronized */
-    void mergeWith(Map<String, IContinuableClassInfo> newVisitedClasses, 
-                   Set<String> newProcessedAnnotations,
-                   Set<String> newContinuableAnnotations) {
-        
-        visitedClasses.putAll(newVisitedClasses);
-        continuableAnnotations.putAll(toMap(newContinuableAnnotations));
-        processedAnnotations.putAll(toMap(newProcessedAnnotations));
+    /**
+     * Publishes the class info resolved by a transformer
+     * @param classInternalName the class name
+     * @param classInfo the class info resolved
+     * @return the class info published by the first transformer that resolved the class
+     */
+    IContinuableClassInfo publishResolved(String classInternalName, IContinuableClassInfo classInfo) {
+        IContinuableClassInfo existing = visitedClasses.putIfAbsent(classInternalName, classInfo);
+        return null == existing ? classInfo : existing;
+    }
+    
+    /**
+     * Replaces class infos of the re-transformed classes
+     * @param refreshedClasses the class infos resolved again
+     */
+    void publishRefreshed(Map<String, IContinuableClassInfo> refreshedClasses) {
+        visitedClasses.putAll(refreshedClasses);
     }
     
-    private static Map<String, Boolean> toMap(Set<String> keys) {
-        Map<String, Boolean> result = new HashMap<String, Boolean>();
-        for (String key : keys) {
-            result.put(key, Boolean.TRUE);
-        }
-        return result;
+    void publishAnnotation(String annotationClassDescriptor, boolean continuable) {
+        // Single write: readers see either nothing or the complete result
+        processedAnnotations.putIfAbsent(annotationClassDescriptor, Boolean.valueOf(continuable));
     }
     
+    private static final int COMMON_SUPER_TYPES_CAPACITY = 
+        Integer.getInteger("net.tascalate.javaflow.common-super-types.capacity", 8192);
+    
     private static final Type CONTINUABLE_ANNOTATION_TYPE = 
         Type.getObjectType("org/apache/commons/javaflow/api/ContinuableAnnotation");
 
@@ -0,0 +1,422 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.providers.core;
+
+import static net.tascalate.asmx.Opcodes.*;
+
+import java.util.Collection;
+import java.util.List;
+
+import net.tascalate.asmx.Type;
+import net.tascalate.asmx.tree.AbstractInsnNode;
+import net.tascalate.asmx.tree.InsnList;
+import net.tascalate.asmx.tree.JumpInsnNode;
+import net.tascalate.asmx.tree.LabelNode;
+import net.tascalate.asmx.tree.LookupSwitchInsnNode;
+import net.tascalate.asmx.tree.MethodNode;
+import net.tascalate.asmx.tree.TableSwitchInsnNode;
+import net.tascalate.asmx.tree.TryCatchBlockNode;
+import net.tascalate.asmx.tree.analysis.Analyzer;
+import net.tascalate.asmx.tree.analysis.AnalyzerException;
+import net.tascalate.asmx.tree.analysis.Frame;
+import net.tascalate.asmx.tree.analysis.Interpreter;
+import net.tascalate.asmx.tree.analysis.Value;
+
+/**
+ * Data-flow analyzer that computes the same frames as {@link Analyzer} but keeps them 
+ * only at join points (method start, jump and switch targets, exception handlers) and 
+ * at the instructions requested by the caller. Frames of other instructions are 
+ * recomputed on demand by executing the straight-line code from the preceding join point
+ * or retained instruction.
+ * <p>
+ * {@link Analyzer} allocates a frame for every instruction, so the memory necessary 
+ * for a huge method grows as the number of instructions times the number of locals.
+ * <p>
+ * Methods with subroutines (JSR/RET) are analyzed with {@link Analyzer}.
+ */
+class SparseAnalyzer<V extends Value> {
+    
+    private final Interpreter<V> interpreter;
+    
+    private InsnList instructions;
+    private List<TryCatchBlockNode> tryCatchBlocks;
+    private int[] tryCatchStarts;
+    private int[] tryCatchEnds;
+    private int[] tryCatchHandlers;
+    
+    private boolean[] joinPoints;
+    private Frame<V>[] frames;
+    
+    private int[] queue;
+    private boolean[] queued;
+    private int queueSize;
+    
+    SparseAnalyzer(Interpreter<V> interpreter) {
+        this.interpreter = interpreter;
+    }
+    
+    /**
+     * Analyze method
+     * @param owner internal name of the class that declares the method
+     * @param method a method to analyze
+     * @param retained instructions which frames should be kept after analysis
+     * @throws AnalyzerException if the method code is not valid
+     */
+    void analyze(String owner, MethodNode method, Collection<? extends AbstractInsnNode> retained) throws AnalyzerException {
+        instructions = method.instructions;
+        int size = instructions.size();
+        if ((method.access & (ACC_ABSTRACT | ACC_NATIVE)) != 0 || size == 0) {
+            frames = newFrames(0);
+            return;
+        }
+        
+        joinPoints = new boolean[size];
+        joinPoints[0] = true;
+        for (AbstractInsnNode insn = instructions.getFirst(); null != insn; insn = insn.getNext()) {
+            int opcode = insn.getOpcode();
+            if (opcode == JSR || opcode == RET) {
+                analyzeWithSubroutines(owner, method);
+                return;
+            }
+            if (insn instanceof JumpInsnNode) {
+                markJoinPoint(((JumpInsnNode)insn).label);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                LookupSwitchInsnNode switchInsn = (LookupSwitchInsnNode)insn;
+                markJoinPoint(switchInsn.dflt);
+                for (LabelNode label : switchInsn.labels) {
+                    markJoinPoint(label);
+                }
+            } else if (insn instanceof TableSwitchInsnNode) {
+                TableSwitchInsnNode switchInsn = (TableSwitchInsnNode)insn;
+                markJoinPoint(switchInsn.dflt);
+                for (LabelNode label : switchInsn.labels) {
+                    markJoinPoint(label);
+                }
+            }
+        }
+        
+        tryCatchBlocks = method.tryCatchBlocks;
+        int handlersCount = null == tryCatchBlocks ? 0 : tryCatchBlocks.size();
+        tryCatchStarts = new int[handlersCount];
+        tryCatchEnds = new int[handlersCount];
+        tryCatchHandlers = new int[handlersCount];
+        for (int i = 0; i < handlersCount; i++) {
+            TryCatchBlockNode tryCatchBlock = tryCatchBlocks.get(i);
+            tryCatchStarts[i] = instructions.indexOf(tryCatchBlock.start);
+            tryCatchEnds[i] = instructions.indexOf(tryCatchBlock.end);
+            tryCatchHandlers[i] = markJoinPoint(tryCatchBlock.handler);
+        }
+        
+        frames = newFrames(size);
+        queue = new int[size];
+        queued = new boolean[size];
+        queueSize = 0;
+        
+        try {
+            merge(0, computeInitialFrame(owner, method));
+        } catch (RuntimeException ex) {
+            throw new AnalyzerException(instructions.get(0), "Error at instruction 0: " + ex.getMessage(), ex);
+        }
+        
+        Frame<V> current = newFrame(method.maxLocals, method.maxStack);
+        while (queueSize > 0) {
+            int index = queue[--queueSize];
+            queued[index] = false;
+            current.init(frames[index]);
+            execute(index, current, -1);
+        }
+        queue = null;
+        queued = null;
+        
+        if (null != retained) {
+            boolean[] isRetained = new boolean[size];
+            int lastRetained = -1;
+            for (AbstractInsnNode insn : retained) {
+                int index = instructions.indexOf(insn);
+                isRetained[index] = true;
+                lastRetained = Math.max(lastRetained, index);
+            }
+            // Frames of join points are final now, so the rest are recomputed from them;
+            // within a block execution continues from the previous retained instruction
+            int from = -1;
+            boolean loaded = false;
+            for (int index = 0; index <= lastRetained; index++) {
+                if (joinPoints[index]) {
+                    from = null == frames[index] ? -1 : index;
+                    loaded = false;
+                    continue;
+                }
+                if (!isRetained[index] || from < 0) {
+                    continue;
+                }
+                if (!loaded) {
+                    current.init(frames[from]);
+                    loaded = true;
+                }
+                if (execute(from, current, index)) {
+                    frames[index] = newFrame(current);
+                    from = index;
+                } else {
+                    // Control leaves the block before the instruction, the rest is unreachable
+                    from = -1;
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get frame of the instruction, retained frames are returned as is
+     * @param insn an instruction of the analyzed method
+     * @return frame before execution of the instruction or null if it is unreachable
+     */
+    Frame<V> getFrame(AbstractInsnNode insn) {
+        int index = instructions.indexOf(insn);
+        if (index >= frames.length) {
+            return null;
+        }
+        Frame<V> frame = frames[index];
+        if (null != frame || null == joinPoints || joinPoints[index]) {
+            return frame;
+        }
+        
+        int start = findStartPoint(index);
+        if (null == frames[start]) {
+            return null;
+        }
+        frame = newFrame(frames[start]);
+        try {
+            return execute(start, frame, index) ? frame : null;
+        } catch (AnalyzerException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    protected Frame<V> newFrame(int nLocals, int nStack) {
+        return new Frame<V>(nLocals, nStack);
+    }
+
+    protected Frame<V> newFrame(Frame<? extends V> src) {
+        return new Frame<V>(src);
+    }
+    
+    private int markJoinPoint(LabelNode label) {
+        int index = instructions.indexOf(label);
+        joinPoints[index] = true;
+        return index;
+    }
+    
+    /**
+     * Finds the nearest preceding instruction with a known frame: 
+     * either a join point or a retained instruction of the same block
+     */
+    private int findStartPoint(int index) {
+        while (!joinPoints[index] && null == frames[index]) {
+            index--;
+        }
+        return index;
+    }
+    
+    /**
+     * Executes the code starting at the join point until the control leaves the block 
+     * or the target instruction is reached. While searching for the fixpoint (no target) 
+     * successors frames are merged and changed successors are queued.
+     * 
+     * @param start index of the join point
+     * @param current frame of the join point, updated in place
+     * @param target index of the instruction to stop at or -1 
+     * @return true if the target instruction is reached
+     */
+    private boolean execute(int start, Frame<V> current, int target) throws AnalyzerException {
+        boolean merge = target < 0;
+        Frame<V> before = null;
+        int size = instructions.size();
+        for (int index = start; ; index++) {
+            if (index == target) {
+                return true;
+            }
+            if (index == size) {
+                throw new AnalyzerException(instructions.get(size - 1), "Execution can fall off the end of the code");
+            }
+            if (index != start && joinPoints[index]) {
+                if (merge) {
+                    merge(index, current);
+                }
+                return false;
+            }
+            
+            AbstractInsnNode insn = instructions.get(index);
+            try {
+                boolean handled = merge && hasHandlers(index);
+                int type = insn.getType();
+                if (type == AbstractInsnNode.LABEL || type == AbstractInsnNode.LINE || type == AbstractInsnNode.FRAME) {
+                    // Pseudo-instructions do not change the frame
+                    if (handled) {
+                        mergeHandlers(index, current, current);
+                    }
+                    continue;
+                }
+                
+                if (handled) {
+                    if (null == before) {
+                        before = newFrame(current);
+                    } else {
+                        before.init(current);
+                    }
+                }
+                
+                int opcode = insn.getOpcode();
+                current.execute(insn, interpreter);
+                
+                boolean fallsThrough;
+                if (insn instanceof JumpInsnNode) {
+                    JumpInsnNode jumpInsn = (JumpInsnNode)insn;
+                    current.initJumpTarget(opcode, jumpInsn.label);
+                    if (merge) {
+                        merge(instructions.indexOf(jumpInsn.label), current);
+                    }
+                    fallsThrough = opcode != GOTO;
+                    if (fallsThrough) {
+                        current.initJumpTarget(opcode, null);
+                    }
+                } else if (insn instanceof LookupSwitchInsnNode) {
+                    LookupSwitchInsnNode switchInsn = (LookupSwitchInsnNode)insn;
+                    if (merge) {
+                        mergeSwitch(opcode, current, switchInsn.dflt, switchInsn.labels);
+                    }
+                    fallsThrough = false;
+                } else if (insn instanceof TableSwitchInsnNode) {
+                    TableSwitchInsnNode switchInsn = (TableSwitchInsnNode)insn;
+                    if (merge) {
+                        mergeSwitch(opcode, current, switchInsn.dflt, switchInsn.labels);
+                    }
+                    fallsThrough = false;
+                } else {
+                    fallsThrough = opcode != ATHROW && (opcode < IRETURN || opcode > RETURN);
+                }
+                
+                if (handled) {
+                    mergeHandlers(index, before, current);
+                }
+                if (!fallsThrough) {
+                    return false;
+                }
+            } catch (AnalyzerException ex) {
+                throw new AnalyzerException(ex.node, "Error at instruction " + index + ": " + ex.getMessage(), ex);
+            } catch (RuntimeException ex) {
+                throw new AnalyzerException(insn, "Error at instruction " + index + ": " + ex.getMessage(), ex);
+            }
+        }
+    }
+    
+    private void mergeSwitch(int opcode, Frame<V> current, LabelNode dflt, List<LabelNode> labels) throws AnalyzerException {
+        current.initJumpTarget(opcode, dflt);
+        merge(instructions.indexOf(dflt), current);
+        for (LabelNode label : labels) {
+            current.initJumpTarget(opcode, label);
+            merge(instructions.indexOf(label), current);
+        }
+    }
+    
+    private boolean hasHandlers(int index) {
+        for (int i = tryCatchStarts.length - 1; i >= 0; i--) {
+            if (index >= tryCatchStarts[i] && index < tryCatchEnds[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private void mergeHandlers(int index, Frame<V> before, Frame<V> after) throws AnalyzerException {
+        for (int i = 0; i < tryCatchStarts.length; i++) {
+            if (index < tryCatchStarts[i] || index >= tryCatchEnds[i]) {
+                continue;
+            }
+            TryCatchBlockNode tryCatchBlock = tryCatchBlocks.get(i);
+            Type catchType = Type.getObjectType(null == tryCatchBlock.type ? "java/lang/Throwable" : tryCatchBlock.type);
+            
+            Frame<V> handler = newFrame(before);
+            handler.clearStack();
+            V exceptionValue = interpreter.newExceptionValue(tryCatchBlock, handler, catchType);
+            handler.push(exceptionValue);
+            merge(tryCatchHandlers[i], handler);
+            
+            handler.init(after);
+            handler.clearStack();
+            handler.push(exceptionValue);
+            merge(tryCatchHandlers[i], handler);
+        }
+    }
+    
+    private void merge(int index, Frame<V> frame) throws AnalyzerException {
+        boolean changed;
+        Frame<V> oldFrame = frames[index];
+        if (null == oldFrame) {
+            frames[index] = newFrame(frame);
+            changed = true;
+        } else {
+            changed = oldFrame.merge(frame, interpreter);
+        }
+        if (changed && !queued[index]) {
+            queued[index] = true;
+            queue[queueSize++] = index;
+        }
+    }
+    
+    private Frame<V> computeInitialFrame(String owner, MethodNode method) {
+        Frame<V> frame = newFrame(method.maxLocals, method.maxStack);
+        int currentLocal = 0;
+        boolean isInstanceMethod = (method.access & ACC_STATIC) == 0;
+        if (isInstanceMethod) {
+            frame.setLocal(currentLocal, interpreter.newParameterValue(isInstanceMethod, currentLocal, Type.getObjectType(owner)));
+            currentLocal++;
+        }
+        for (Type argumentType : Type.getArgumentTypes(method.desc)) {
+            frame.setLocal(currentLocal, interpreter.newParameterValue(isInstanceMethod, currentLocal, argumentType));
+            currentLocal++;
+            if (argumentType.getSize() == 2) {
+                frame.setLocal(currentLocal, interpreter.newEmptyValue(currentLocal));
+                currentLocal++;
+            }
+        }
+        while (currentLocal < method.maxLocals) {
+            frame.setLocal(currentLocal, interpreter.newEmptyValue(currentLocal));
+            currentLocal++;
+        }
+        frame.setReturn(interpreter.newReturnTypeValue(Type.getReturnType(method.desc)));
+        return frame;
+    }
+    
+    private void analyzeWithSubroutines(String owner, MethodNode method) throws AnalyzerException {
+        Analyzer<V> analyzer = new Analyzer<V>(interpreter) {
+            @Override
+            protected Frame<V> newFrame(int nLocals, int nStack) {
+                return SparseAnalyzer.this.newFrame(nLocals, nStack);
+            }
+
+            @Override
+            protected Frame<V> newFrame(Frame<? extends V> src) {
+                return SparseAnalyzer.this.newFrame(src);
+            }
+        };
+        frames = analyzer.analyze(owner, method);
+        joinPoints = null;
+    }
+    
+    @SuppressWarnings("unchecked")
+    private static <V extends Value> Frame<V>[] newFrames(int size) {
+        return (Frame<V>[])new Frame<?>[size];
+    }
+}
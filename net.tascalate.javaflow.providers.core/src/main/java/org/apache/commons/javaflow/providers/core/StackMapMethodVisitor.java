@@ -0,0 +1,350 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.providers.core;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.tascalate.asmx.Handle;
+import net.tascalate.asmx.Label;
+import net.tascalate.asmx.MethodVisitor;
+import net.tascalate.asmx.Opcodes;
+import net.tascalate.asmx.Type;
+import net.tascalate.asmx.tree.AbstractInsnNode;
+import net.tascalate.asmx.tree.JumpInsnNode;
+import net.tascalate.asmx.tree.LabelNode;
+import net.tascalate.asmx.tree.LookupSwitchInsnNode;
+import net.tascalate.asmx.tree.TableSwitchInsnNode;
+import net.tascalate.asmx.tree.TryCatchBlockNode;
+import net.tascalate.asmx.tree.analysis.BasicValue;
+import net.tascalate.asmx.tree.analysis.Frame;
+
+/**
+ * Writes stack map frames of the instrumented method from the frames of 
+ * {@link ContinuableMethodNode} analysis, so the class writer doesn't need to 
+ * recompute them. Frames are written at jump and switch targets, at exception handlers 
+ * and at the labels of the code added by {@link ContinuableMethodVisitor}.
+ * <p>
+ * Locals that are not live are written as TOP: they are not restored on resume, 
+ * see {@link LocalsLiveness}. When the code can't be described this way (dead code, 
+ * subroutines, values that don't fit into the frame) {@link UnsupportedCodeException} 
+ * is thrown, and the class should be transformed again with frames computed by the class writer.
+ */
+class StackMapMethodVisitor extends MethodVisitor implements Opcodes {
+    private final ContinuableMethodNode methodNode;
+    private final LocalsLiveness liveness;
+    private final int stackRecorderVar;
+    private final Map<Label, AbstractInsnNode> targets = new HashMap<Label, AbstractInsnNode>();
+    
+    private Object[] pendingLocals;
+    private Object[] pendingStack;
+    private boolean reachable = true;
+
+    StackMapMethodVisitor(int api, ContinuableMethodNode methodNode, LocalsLiveness liveness, int stackRecorderVar, MethodVisitor mv) {
+        super(api, mv);
+        this.methodNode = methodNode;
+        this.liveness = liveness;
+        this.stackRecorderVar = stackRecorderVar;
+        
+        for (AbstractInsnNode insn = methodNode.instructions.getFirst(); null != insn; insn = insn.getNext()) {
+            if (insn instanceof JumpInsnNode) {
+                addTarget(((JumpInsnNode)insn).label);
+            } else if (insn instanceof LookupSwitchInsnNode) {
+                LookupSwitchInsnNode switchInsn = (LookupSwitchInsnNode)insn;
+                addTarget(switchInsn.dflt);
+                addTargets(switchInsn.labels);
+            } else if (insn instanceof TableSwitchInsnNode) {
+                TableSwitchInsnNode switchInsn = (TableSwitchInsnNode)insn;
+                addTarget(switchInsn.dflt);
+                addTargets(switchInsn.labels);
+            }
+        }
+        for (TryCatchBlockNode tryCatchBlock : methodNode.tryCatchBlocks) {
+            addTarget(tryCatchBlock.handler);
+        }
+        // Guarded call sites are targets of the resume code
+        for (int i = methodNode.labels.size() - 1; i >= 0; i--) {
+            targets.put(methodNode.labels.get(i), methodNode.nodes.get(i));
+        }
+    }
+    
+    private void addTarget(LabelNode label) {
+        targets.put(label.getLabel(), label);
+    }
+    
+    private void addTargets(List<LabelNode> labels) {
+        for (LabelNode label : labels) {
+            addTarget(label);
+        }
+    }
+    
+    /**
+     * Writes the frame of the analyzed instruction before the next instruction
+     * @param node an instruction of the analyzed method
+     */
+    void visitFrameOf(AbstractInsnNode node) {
+        Frame<BasicValue> frame = methodNode.getFrameByNode(node);
+        if (null == frame) {
+            throw unsupported("Unreachable code");
+        }
+        setPendingFrame(frame, node, frame.getStackSize(), null);
+    }
+    
+    /**
+     * Writes the frame after the invocation of the guarded call site
+     * @param frame the frame of the call site
+     * @param stackSize the size of the stack that is kept by the call
+     * @param returnType the return type of the call
+     */
+    void visitFrameAfter(Frame<?> frame, int stackSize, Type returnType) {
+        setPendingFrame(frame, null, stackSize, returnType);
+    }
+    
+    /**
+     * Verifies that values saved at the guarded call site are restored as they are 
+     * described by the frame: objects created by NEW are uninitialized in the frame 
+     * until their constructor is invoked, but restored as initialized references
+     * @param frame the frame of the call site, dead locals are already pruned
+     * @param stackSize the size of the stack that is restored before the call arguments
+     */
+    void checkSavedValues(Frame<?> frame, int stackSize) {
+        for (int i = 0; i < frame.getLocals(); i++) {
+            if (frame.getLocal(i) instanceof StackMapVerifier.UninitializedValue) {
+                throw unsupported("Uninitialized object in local " + i + " at call site");
+            }
+        }
+        for (int i = 0; i < stackSize; i++) {
+            if (frame.getStack(i) instanceof StackMapVerifier.UninitializedValue) {
+                throw unsupported("Uninitialized object on stack at call site");
+            }
+        }
+    }
+    
+    private void setPendingFrame(Frame<?> frame, AbstractInsnNode node, int stackSize, Type pushed) {
+        int localsSize = Math.max(frame.getLocals(), stackRecorderVar + 1);
+        List<Object> locals = new ArrayList<Object>(localsSize);
+        int size = 0;
+        for (int i = 0; i < localsSize; i++) {
+            Object type;
+            BasicValue value = i < frame.getLocals() ? (BasicValue) frame.getLocal(i) : BasicValue.UNINITIALIZED_VALUE;
+            if (i == stackRecorderVar) {
+                type = ContinuableMethodNode.STACK_RECORDER;
+            } else if (i == 0 && (methodNode.access & ACC_STATIC) == 0) {
+                // Owner is saved on capture
+                type = value == BasicValue.UNINITIALIZED_VALUE ? methodNode.className : toFrameType(value);
+            } else if (null != node && null != liveness && !liveness.isLiveBefore(node, i)) {
+                // Not restored on resume
+                type = TOP;
+            } else {
+                type = toFrameType(value);
+            }
+            locals.add(type);
+            if (type != TOP) {
+                size = locals.size();
+            }
+            if (type == LONG || type == DOUBLE) {
+                i++;
+            }
+        }
+        // Trailing unused locals are omitted
+        pendingLocals = locals.subList(0, size).toArray();
+
+        Object[] stack = new Object[null == pushed || pushed.getSort() == Type.VOID ? stackSize : stackSize + 1];
+        for (int i = 0; i < stackSize; i++) {
+            Object type = toFrameType((BasicValue) frame.getStack(i));
+            if (type == TOP) {
+                throw unsupported("Unknown value on stack");
+            }
+            stack[i] = type;
+        }
+        if (stack.length > stackSize) {
+            stack[stackSize] = toFrameType(pushed);
+        }
+        pendingStack = stack;
+    }
+    
+    private Object toFrameType(BasicValue value) {
+        if (value instanceof StackMapVerifier.UninitializedValue) {
+            // Labels are inserted before NEW by ContinuableMethodNode
+            AbstractInsnNode label = ((StackMapVerifier.UninitializedValue)value).newInsn.getPrevious();
+            if (!(label instanceof LabelNode)) {
+                throw unsupported("No label before NEW");
+            }
+            return ((LabelNode)label).getLabel();
+        }
+        Type type = value.getType();
+        if (null == type) {
+            return TOP;
+        }
+        if (type.getSort() == Type.VOID) {
+            throw unsupported("Return address in frame");
+        }
+        return toFrameType(type);
+    }
+    
+    private static Object toFrameType(Type type) {
+        switch (type.getSort()) {
+            case Type.BOOLEAN: case Type.CHAR: case Type.BYTE: case Type.SHORT: case Type.INT:
+                return INTEGER;
+            case Type.FLOAT:
+                return FLOAT;
+            case Type.LONG:
+                return LONG;
+            case Type.DOUBLE:
+                return DOUBLE;
+            case Type.ARRAY:
+                return type.getDescriptor();
+            default:
+                return NULL_TYPE.equals(type) ? NULL : type.getInternalName();
+        }
+    }
+    
+    private void beforeInsn(int opcode) {
+        if (null != pendingLocals) {
+            mv.visitFrame(F_NEW, pendingLocals.length, pendingLocals, pendingStack.length, pendingStack);
+            pendingLocals = null;
+            pendingStack = null;
+        } else if (!reachable) {
+            throw unsupported("Unreachable code");
+        }
+        switch (opcode) {
+            case JSR: case RET:
+                throw unsupported("Subroutines are not supported");
+            case GOTO: case TABLESWITCH: case LOOKUPSWITCH: case ATHROW:
+            case IRETURN: case LRETURN: case FRETURN: case DRETURN: case ARETURN: case RETURN:
+                reachable = false;
+                break;
+            default:
+                reachable = true;
+        }
+    }
+    
+    @Override
+    public void visitLabel(Label label) {
+        mv.visitLabel(label);
+        AbstractInsnNode node = targets.get(label);
+        if (null != node) {
+            // Several labels may share the same offset and the same frame
+            visitFrameOf(node);
+        }
+    }
+
+    @Override
+    public void visitFrame(int type, int numLocal, Object[] local, int numStack, Object[] stack) {
+        // Frames are written by this visitor
+    }
+
+    @Override
+    public void visitInsn(int opcode) {
+        beforeInsn(opcode);
+        mv.visitInsn(opcode);
+    }
+
+    @Override
+    public void visitIntInsn(int opcode, int operand) {
+        beforeInsn(opcode);
+        mv.visitIntInsn(opcode, operand);
+    }
+
+    @Override
+    public void visitVarInsn(int opcode, int var) {
+        beforeInsn(opcode);
+        mv.visitVarInsn(opcode, var);
+    }
+
+    @Override
+    public void visitTypeInsn(int opcode, String type) {
+        beforeInsn(opcode);
+        mv.visitTypeInsn(opcode, type);
+    }
+
+    @Override
+    public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+        beforeInsn(opcode);
+        mv.visitFieldInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean intf) {
+        beforeInsn(opcode);
+        mv.visitMethodInsn(opcode, owner, name, desc, intf);
+    }
+
+    @Deprecated
+    @Override
+    public void visitMethodInsn(int opcode, String owner, String name, String desc) {
+        beforeInsn(opcode);
+        mv.visitMethodInsn(opcode, owner, name, desc);
+    }
+
+    @Override
+    public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+        beforeInsn(INVOKEDYNAMIC);
+        mv.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+    }
+
+    @Override
+    public void visitJumpInsn(int opcode, Label label) {
+        beforeInsn(opcode);
+        mv.visitJumpInsn(opcode, label);
+    }
+
+    @Override
+    public void visitLdcInsn(Object value) {
+        beforeInsn(LDC);
+        mv.visitLdcInsn(value);
+    }
+
+    @Override
+    public void visitIincInsn(int var, int increment) {
+        beforeInsn(IINC);
+        mv.visitIincInsn(var, increment);
+    }
+
+    @Override
+    public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels) {
+        beforeInsn(TABLESWITCH);
+        mv.visitTableSwitchInsn(min, max, dflt, labels);
+    }
+
+    @Override
+    public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels) {
+        beforeInsn(LOOKUPSWITCH);
+        mv.visitLookupSwitchInsn(dflt, keys, labels);
+    }
+
+    @Override
+    public void visitMultiANewArrayInsn(String desc, int dims) {
+        beforeInsn(MULTIANEWARRAY);
+        mv.visitMultiANewArrayInsn(desc, dims);
+    }
+    
+    private UnsupportedCodeException unsupported(String reason) {
+        return new UnsupportedCodeException(methodNode.name + methodNode.desc + ": " + reason);
+    }
+    
+    static class UnsupportedCodeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UnsupportedCodeException(String message) {
+            super(message);
+        }
+    }
+    
+    private static final Type NULL_TYPE = Type.getObjectType("null");
+}
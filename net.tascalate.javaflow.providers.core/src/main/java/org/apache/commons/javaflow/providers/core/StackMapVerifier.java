@@ -0,0 +1,83 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.providers.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.tascalate.asmx.Type;
+import net.tascalate.asmx.plus.ClassHierarchy;
+import net.tascalate.asmx.tree.AbstractInsnNode;
+import net.tascalate.asmx.tree.TypeInsnNode;
+import net.tascalate.asmx.tree.analysis.AnalyzerException;
+import net.tascalate.asmx.tree.analysis.BasicValue;
+
+/**
+ * Verifier that tracks objects created by NEW as uninitialized until their 
+ * constructor is invoked (see {@link MonitoringFrame}), so frames computed 
+ * with it may be written to the stack map table as is.
+ */
+class StackMapVerifier extends FastClassVerifier {
+    private final Map<AbstractInsnNode, UninitializedValue> uninitializedValues = new HashMap<AbstractInsnNode, UninitializedValue>();
+    
+    StackMapVerifier(int api, ClassHierarchy classHierarchy, CommonSuperTypes commonSuperTypes) {
+        super(api, classHierarchy, commonSuperTypes);
+    }
+    
+    @Override
+    public BasicValue newOperation(AbstractInsnNode insn) throws AnalyzerException {
+        if (insn.getOpcode() == NEW) {
+            UninitializedValue value = uninitializedValues.get(insn);
+            if (null == value) {
+                value = new UninitializedValue(Type.getObjectType(((TypeInsnNode)insn).desc), insn);
+                uninitializedValues.put(insn, value);
+            }
+            return value;
+        }
+        return super.newOperation(insn);
+    }
+    
+    @Override
+    public BasicValue merge(BasicValue v, BasicValue w) {
+        if (v != w && (v instanceof UninitializedValue || w instanceof UninitializedValue)) {
+            return BasicValue.UNINITIALIZED_VALUE;
+        }
+        return super.merge(v, w);
+    }
+    
+    /**
+     * Object created by NEW, stays uninitialized until its constructor is invoked.
+     * Every NEW instruction produces its own value, the same one each time it is executed.
+     */
+    static final class UninitializedValue extends BasicValue {
+        final AbstractInsnNode newInsn;
+        
+        UninitializedValue(Type type, AbstractInsnNode newInsn) {
+            super(type);
+            this.newInsn = newInsn;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            return this == other;
+        }
+        
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+}
@@ -16,22 +16,150 @@
 package org.apache.commons.javaflow.spi;
 
 import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
 import java.lang.ref.SoftReference;
-import java.util.Map;
-import java.util.WeakHashMap;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
+/**
+ * Cache with weak keys and soft values that is safe for concurrent use.
+ * <p>
+ * Lookups do not lock, so parallel class loading is not serialized on the cache. 
+ * Values are created at most once per key at a time: concurrent callers of 
+ * {@link #get(Object)} with the same key wait for the value created by the first one.
+ * A nested call with the same key from {@link #createValue(Object)} (e.g. class loading 
+ * triggered while the value is created) creates the value again without caching it, 
+ * like the synchronized map did before.
+ * Keys are compared with <code>equals</code> like in {@link java.util.WeakHashMap}.
+ * </p>
+ * 
+ * @param <K> type of keys, null keys are not supported
+ * @param <V> type of values
+ */
 abstract public class Cache<K, V> {
-    private final Map<K, Reference<V>> storage = new WeakHashMap<K, Reference<V>>();
+    // Values are either Reference<V> or Pending<V> while the value is created
+    private final ConcurrentMap<WeakKey<K>, Object> storage = new ConcurrentHashMap<WeakKey<K>, Object>();
+    private final ReferenceQueue<K> staleKeys = new ReferenceQueue<K>();
     
-    synchronized public V get(K key) {
-        Reference<V> valueRef = storage.get(key);
-        V value = null == valueRef ? null : valueRef.get();
-        if (null == value) {
-            value = createValue(key);
-            storage.put(key, new SoftReference<V>(value));
-        }
-        return value;
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (null == key) {
+            throw new NullPointerException("Key is null");
+        }
+        expungeStaleEntries();
+        WeakKey<K> lookupKey = new WeakKey<K>(key, null);
+        while (true) {
+            Object current = storage.get(lookupKey);
+            if (current instanceof Pending) {
+                Pending<V> pending = (Pending<V>)current;
+                if (pending.owner == Thread.currentThread()) {
+                    // Waiting for itself would never end
+                    return createValue(key);
+                }
+                return await(lookupKey, pending, false);
+            }
+            if (null != current) {
+                V value = ((Reference<V>)current).get();
+                if (null != value) {
+                    return value;
+                }
+            }
+            
+            Pending<V> pending = new Pending<V>(this, key);
+            boolean installed = null == current ? 
+                null == storage.putIfAbsent(new WeakKey<K>(key, staleKeys), pending) :
+                storage.replace(lookupKey, current, pending);
+            if (installed) {
+                pending.run();
+                return await(lookupKey, pending, true);
+            }
+            // Lost the race with another thread, re-read its result
+        }
     }
     
     abstract protected V createValue(K key);
+    
+    private V await(WeakKey<K> lookupKey, Pending<V> pending, boolean owner) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    V value = pending.get();
+                    if (owner) {
+                        storage.replace(lookupKey, pending, new SoftReference<V>(value));
+                    }
+                    return value;
+                } catch (InterruptedException ex) {
+                    // Class loading must not be aborted half-way, 
+                    // the interrupt status is restored when the value is available
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    // Let the next caller try again
+                    storage.remove(lookupKey, pending);
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error)cause;
+                    } else {
+                        throw new RuntimeException(cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private void expungeStaleEntries() {
+        Reference<? extends K> staleKey;
+        while (null != (staleKey = staleKeys.poll())) {
+            storage.remove(staleKey);
+        }
+    }
+    
+    private static final class Pending<V> extends FutureTask<V> {
+        // Thread that creates the value
+        final Thread owner = Thread.currentThread();
+        
+        <K> Pending(final Cache<K, V> cache, final K key) {
+            super(new Callable<V>() {
+                public V call() {
+                    return cache.createValue(key);
+                }
+            });
+        }
+    }
+    
+    private static final class WeakKey<K> extends WeakReference<K> {
+        private final int hash;
+        
+        WeakKey(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            hash = key.hashCode();
+        }
+        
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        
+        @Override
+        public boolean equals(Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof WeakKey)) {
+                return false;
+            }
+            Object key = get();
+            return null != key && key.equals(((WeakKey<?>)other).get());
+        }
+    }
 }
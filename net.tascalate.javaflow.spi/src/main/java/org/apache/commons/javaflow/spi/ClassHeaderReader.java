@@ -27,8 +27,17 @@
 // THE POSSIBILITY OF SUCH DAMAGE.
 package org.apache.commons.javaflow.spi;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
 /**
- * Class header reader -- like class name, superclass, interfaces. Based on an
+ * Class header reader -- like class name, superclass, interfaces, method headers and 
+ * annotations of the class and its methods. Method bodies and other attributes are skipped without parsing, 
+ * so it's much cheaper than a full class visit. Based on an
  * OW2 ASM ClassReadercthat reads class structure, as defined in the Java
  * Virtual Machine Specification (JVMS). encountered.
  *
@@ -38,7 +47,7 @@ package org.apache.commons.javaflow.spi;
  * @author Eric Bruneton
  * @author Eugene Kuleshov
  */
-class ClassHeaderReader {
+public class ClassHeaderReader {
     /**
      * A byte array containing the JVMS ClassFile structure to be parsed. <i>The
      * content of this array must not be modified. This field is intended for
@@ -90,7 +99,7 @@ class ClassHeaderReader {
      * @param classFile
      *            the JVMS ClassFile structure to be read.
      */
-    ClassHeaderReader(final byte[] classFile) {
+    public ClassHeaderReader(final byte[] classFile) {
         this(classFile, 0);
     }
 
@@ -202,12 +211,22 @@ class ClassHeaderReader {
     // Accessors
     // -----------------------------------------------------------------------------------------------
 
+    /**
+     * Returns the class's access flags (see JVMS 4.1). This value may not reflect Deprecated
+     * and Synthetic flags when bytecode is before 1.5 and those flags are represented by attributes.
+     *
+     * @return the class access flags.
+     */
+    public int getAccess() {
+        return readUnsignedShort(header);
+    }
+
     /**
      * Returns the internal name of the class.
      *
      * @return the internal class name.
      */
-    String getClassName() {
+    public String getClassName() {
         // this_class is just after the access_flags field (using 2 bytes).
         return readClass(header + 2, new char[maxStringLength]);
     }
@@ -219,7 +238,7 @@ class ClassHeaderReader {
      * @return the internal name of the super class, or {@literal null} for {@link Object} class.
      * @see ClassVisitor#visit(int, int, String, String, String, String[])
      */
-    String getSuperName() {
+    public String getSuperName() {
       // super_class is after the access_flags and this_class fields (2 bytes each).
       return readClass(header + 4, new char[maxStringLength]);
     }
@@ -231,7 +250,7 @@ class ClassHeaderReader {
      *     interfaces are not returned.
      * @see ClassVisitor#visit(int, int, String, String, String, String[])
      */
-    String[] getInterfaces() {
+    public String[] getInterfaces() {
       // interfaces_count is after the access_flags, this_class and super_class fields (2 bytes each).
       int currentOffset = header + 6;
       int interfacesCount = readUnsignedShort(currentOffset);
@@ -246,6 +265,102 @@ class ClassHeaderReader {
       return interfaces;
     }    
 
+    /**
+     * Returns descriptors of the annotations (both visible and invisible at run-time) of 
+     * all methods declared in the class. Fields and method bodies are skipped without parsing.
+     *
+     * @return the descriptors of methods' annotations.
+     */
+    public Set<String> getMethodAnnotations() {
+        char[] charBuffer = new char[maxStringLength];
+        int currentOffset = getMethodsOffset();
+        
+        Set<String> result = new HashSet<String>();
+        int methodsCount = readUnsignedShort(currentOffset);
+        currentOffset += 2;
+        while (methodsCount-- > 0) {
+            currentOffset = readAnnotations(currentOffset + 6, charBuffer, result);
+        }
+        return result;
+    }
+    
+    /**
+     * Returns descriptors of the annotations (both visible and invisible at run-time) of 
+     * the class itself. Fields and methods are skipped without parsing.
+     *
+     * @return the descriptors of class annotations.
+     */
+    public Set<String> getClassAnnotations() {
+        int currentOffset = getMethodsOffset();
+        int methodsCount = readUnsignedShort(currentOffset);
+        currentOffset += 2;
+        while (methodsCount-- > 0) {
+            // access_flags, name_index and descriptor_index fields use 2 bytes each.
+            currentOffset = skipAttributes(currentOffset + 6);
+        }
+        Set<String> result = new HashSet<String>();
+        readAnnotations(currentOffset, new char[maxStringLength], result);
+        return result;
+    }
+    
+    /**
+     * Returns headers of all methods declared in the class, in the order of declaration. 
+     * Every header is a string of the form <code>name descriptor access @annotation...</code>, 
+     * where annotations (both visible and invisible at run-time) are listed by descriptors 
+     * and sorted. Method bodies are skipped without parsing.
+     *
+     * @return the headers of the declared methods.
+     */
+    public List<String> getMethodHeaders() {
+        char[] charBuffer = new char[maxStringLength];
+        int currentOffset = getMethodsOffset();
+        
+        int methodsCount = readUnsignedShort(currentOffset);
+        currentOffset += 2;
+        List<String> result = new ArrayList<String>(methodsCount);
+        Set<String> annotations = new TreeSet<String>();
+        while (methodsCount-- > 0) {
+            StringBuilder header = new StringBuilder();
+            header.append(readUTF8(currentOffset + 2, charBuffer))
+                  .append(' ')
+                  .append(readUTF8(currentOffset + 4, charBuffer))
+                  .append(' ')
+                  .append(readUnsignedShort(currentOffset));
+            
+            annotations.clear();
+            currentOffset = readAnnotations(currentOffset + 6, charBuffer, annotations);
+            for (String annotation : annotations) {
+                header.append(" @").append(annotation);
+            }
+            result.add(header.toString());
+        }
+        return result;
+    }
+    
+    /**
+     * Returns internal names of all classes referenced from the constant pool, 
+     * including the class itself, its super class and interfaces. Array types 
+     * are not reported.
+     *
+     * @return the internal names of referenced classes.
+     */
+    public Set<String> getReferencedClasses() {
+        char[] charBuffer = new char[maxStringLength];
+        Set<String> result = new HashSet<String>();
+        for (int i = 1; i < cpInfoOffsets.length; i++) {
+            int cpInfoOffset = cpInfoOffsets[i];
+            // Second slot of long and double entries is not used
+            if (cpInfoOffset == 0 || b[cpInfoOffset - 1] != Symbol.CONSTANT_CLASS_TAG) {
+                continue;
+            }
+            String name = readUTF8(cpInfoOffset, charBuffer);
+            if (null != name && name.charAt(0) != '[') {
+                result.add(name);
+            }
+        }
+        return result;
+    }
+
     // -----------------------------------------------------------------------------------------------
     // Public methods
     // -----------------------------------------------------------------------------------------------
@@ -267,6 +382,138 @@ class ClassHeaderReader {
         return ((classFileBuffer[offset] & 0xFF) << 8) | (classFileBuffer[offset + 1] & 0xFF);
     }
 
+    /**
+     * Computes the offset of the methods_count field, skipping interfaces and fields.
+     * 
+     * @return the start offset of the methods_count field.
+     */
+    private int getMethodsOffset() {
+        // interfaces_count is after the access_flags, this_class and super_class fields (2 bytes each).
+        int currentOffset = header + 6;
+        currentOffset += 2 + 2 * readUnsignedShort(currentOffset);
+        
+        int fieldsCount = readUnsignedShort(currentOffset);
+        currentOffset += 2;
+        while (fieldsCount-- > 0) {
+            // access_flags, name_index and descriptor_index fields use 2 bytes each.
+            currentOffset = skipAttributes(currentOffset + 6);
+        }
+        return currentOffset;
+    }
+    
+    /**
+     * Collects descriptors of annotations from attributes_count and attributes fields 
+     * of field_info, method_info or ClassFile structure.
+     * 
+     * @param offset
+     *            the start offset of the attributes_count field.
+     * @param charBuffer
+     *            the buffer to be used to read strings.
+     * @param result
+     *            the collection to add annotation descriptors to.
+     * @return the offset just after the attributes.
+     */
+    private int readAnnotations(final int offset, final char[] charBuffer, final Collection<String> result) {
+        int currentOffset = offset;
+        int attributesCount = readUnsignedShort(currentOffset);
+        currentOffset += 2;
+        while (attributesCount-- > 0) {
+            // attribute_name_index (2 bytes) and attribute_length (4 bytes) 
+            String attributeName = readUTF8(currentOffset, charBuffer);
+            int attributeLength = readInt(currentOffset + 2);
+            currentOffset += 6;
+            if ("RuntimeVisibleAnnotations".equals(attributeName) || 
+                "RuntimeInvisibleAnnotations".equals(attributeName)) {
+                int annotationsCount = readUnsignedShort(currentOffset);
+                int annotationOffset = currentOffset + 2;
+                while (annotationsCount-- > 0) {
+                    result.add(readUTF8(annotationOffset, charBuffer));
+                    annotationOffset = skipAnnotation(annotationOffset);
+                }
+            }
+            currentOffset += attributeLength;
+        }
+        return currentOffset;
+    }
+
+    /**
+     * Skips attributes_count and attributes fields of field_info or method_info structure.
+     * 
+     * @param offset
+     *            the start offset of the attributes_count field.
+     * @return the offset just after the attributes.
+     */
+    private int skipAttributes(final int offset) {
+        int currentOffset = offset;
+        int attributesCount = readUnsignedShort(currentOffset);
+        currentOffset += 2;
+        while (attributesCount-- > 0) {
+            // attribute_name_index (2 bytes), attribute_length (4 bytes) and info 
+            currentOffset += 6 + readInt(currentOffset + 2);
+        }
+        return currentOffset;
+    }
+    
+    /**
+     * Skips an annotation structure, including nested element values.
+     * 
+     * @param offset
+     *            the start offset of the annotation (its type_index field).
+     * @return the offset just after the annotation.
+     */
+    private int skipAnnotation(final int offset) {
+        // type_index (2 bytes) is followed by num_element_value_pairs
+        int currentOffset = offset + 2;
+        int pairsCount = readUnsignedShort(currentOffset);
+        currentOffset += 2;
+        while (pairsCount-- > 0) {
+            // element_name_index (2 bytes) is followed by element_value
+            currentOffset = skipElementValue(currentOffset + 2);
+        }
+        return currentOffset;
+    }
+    
+    /**
+     * Skips an element_value structure of an annotation.
+     * 
+     * @param offset
+     *            the start offset of the element_value (its tag field).
+     * @return the offset just after the element_value.
+     */
+    private int skipElementValue(final int offset) {
+        int currentOffset = offset + 1;
+        switch (b[offset]) {
+            case 'e': // enum_const_value
+                return currentOffset + 4;
+            case '@': // annotation_value
+                return skipAnnotation(currentOffset);
+            case '[': // array_value
+                int valuesCount = readUnsignedShort(currentOffset);
+                currentOffset += 2;
+                while (valuesCount-- > 0) {
+                    currentOffset = skipElementValue(currentOffset);
+                }
+                return currentOffset;
+            default: // const_value_index or class_info_index
+                return currentOffset + 2;
+        }
+    }
+
+    /**
+     * Reads a signed int value in {@link #b}.
+     *
+     * @param offset
+     *            the start offset of the value to be read in {@link #b}.
+     * @return the read value.
+     */
+    private int readInt(final int offset) {
+        byte[] classFileBuffer = b;
+        return ((classFileBuffer[offset] & 0xFF) << 24)
+            | ((classFileBuffer[offset + 1] & 0xFF) << 16)
+            | ((classFileBuffer[offset + 2] & 0xFF) << 8)
+            | (classFileBuffer[offset + 3] & 0xFF);
+    }
+
     /**
      * Reads a signed short value in {@link #b}. <i>This method is intended for
      * Attribute sub classes, and is normally not needed by class generators
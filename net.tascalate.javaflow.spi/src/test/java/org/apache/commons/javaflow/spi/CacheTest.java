@@ -0,0 +1,144 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.spi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class CacheTest {
+
+    @Test(timeout = 10000)
+    public void nestedGetWithSameKeyDoesNotWaitForItself() {
+        final AtomicInteger created = new AtomicInteger();
+        Cache<String, String> cache = new Cache<String, String>() {
+            @Override
+            protected String createValue(String key) {
+                // Like class loading triggered by the creation of the value
+                String nested = created.incrementAndGet() == 1 ? get(key) : "nested";
+                return key + ":" + nested;
+            }
+        };
+        assertEquals("a:a:nested", cache.get("a"));
+        assertEquals(2, created.get());
+        // Only the outer value is cached
+        assertEquals("a:a:nested", cache.get("a"));
+        assertEquals(2, created.get());
+    }
+    
+    @Test(timeout = 10000)
+    public void concurrentGetCreatesValueOnce() throws InterruptedException {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger created = new AtomicInteger();
+        final Cache<String, Object> cache = new Cache<String, Object>() {
+            @Override
+            protected Object createValue(String key) {
+                created.incrementAndGet();
+                creating.countDown();
+                awaitUninterruptibly(release);
+                return new Object();
+            }
+        };
+        final AtomicReference<Object> first = new AtomicReference<Object>();
+        Thread owner = new Thread() {
+            @Override
+            public void run() {
+                first.set(cache.get("a"));
+            }
+        };
+        owner.start();
+        creating.await();
+        
+        final AtomicReference<Object> second = new AtomicReference<Object>();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                second.set(cache.get("a"));
+            }
+        };
+        waiter.start();
+        release.countDown();
+        owner.join();
+        waiter.join();
+        
+        assertEquals(1, created.get());
+        assertSame(first.get(), second.get());
+    }
+    
+    @Test(timeout = 10000)
+    public void interruptStatusIsRestoredAfterWaiting() throws InterruptedException {
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Cache<String, String> cache = new Cache<String, String>() {
+            @Override
+            protected String createValue(String key) {
+                creating.countDown();
+                awaitUninterruptibly(release);
+                return key;
+            }
+        };
+        Thread owner = new Thread() {
+            @Override
+            public void run() {
+                cache.get("a");
+            }
+        };
+        owner.start();
+        creating.await();
+        
+        final AtomicReference<String> value = new AtomicReference<String>();
+        final AtomicReference<Boolean> interrupted = new AtomicReference<Boolean>();
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                Thread.currentThread().interrupt();
+                value.set(cache.get("a"));
+                interrupted.set(Thread.currentThread().isInterrupted());
+            }
+        };
+        waiter.start();
+        // Let the waiter block on the pending value before it's available
+        Thread.sleep(100);
+        release.countDown();
+        owner.join();
+        waiter.join();
+        
+        assertEquals("a", value.get());
+        assertTrue(interrupted.get());
+    }
+    
+    static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
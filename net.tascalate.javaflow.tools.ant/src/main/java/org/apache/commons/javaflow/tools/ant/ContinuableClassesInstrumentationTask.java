@@ -17,15 +17,11 @@
 package org.apache.commons.javaflow.tools.ant;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.jar.JarInputStream;
-import java.util.jar.JarOutputStream;
 
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.DirectoryScanner;
@@ -36,7 +32,9 @@ import org.apache.tools.ant.types.Reference;
 import org.apache.tools.ant.types.Resource;
 import org.apache.tools.ant.types.resources.FileResource;
 
+import org.apache.commons.javaflow.spi.ResourceTransformationFactory;
 import org.apache.commons.javaflow.spi.ResourceTransformer;
+import org.apache.commons.javaflow.tools.jar.InstrumentationManifest;
 import org.apache.commons.javaflow.tools.jar.RewritingUtils;
 
 /**
@@ -47,6 +45,8 @@ public class ContinuableClassesInstrumentationTask extends MatchingTask {
     private File dstDir;
     private File srcDir;
     private Path compileClasspath;
+    private File manifest;
+    private int threads;
 
     /**
      * Directory to which the transformed files will be written.
@@ -70,6 +70,28 @@ public class ContinuableClassesInstrumentationTask extends MatchingTask {
         fileset.setDir(srcDir);
     }
 
+    /**
+     * File where digests of instrumented class files are kept between builds.
+     * When specified, class files are skipped by digests rather than by
+     * modification time, and classes that depend on changed classes are
+     * instrumented again.
+     * 
+     * @param pFile manifest file
+     */
+    public void setManifest(File pFile) {
+        manifest = pFile;
+    }
+
+    /**
+     * Number of threads that transform classes of jar files. By default (0) 
+     * equals to the number of available processors.
+     * 
+     * @param pThreads number of threads
+     */
+    public void setThreads(int pThreads) {
+        threads = pThreads;
+    }
+
     /**
      * Sets the transformer to use.
      *
@@ -169,10 +191,14 @@ public class ContinuableClassesInstrumentationTask extends MatchingTask {
             List<URL> classPathByDir = new ArrayList<URL>(classPath);
             classPathByDir.add(srcDir.toURI().toURL());
 
-            ResourceTransformer dirTransformer = RewritingUtils.createTransformer(
-                classPathByDir.toArray(new URL[]{})
-            );
+            URL[] classPathByDirUrls = classPathByDir.toArray(new URL[]{});
+            ResourceTransformationFactory factory = RewritingUtils.createTransformerFactoryInstance();
+            ResourceTransformer dirTransformer = RewritingUtils.createTransformer(classPathByDirUrls, factory);
             try {
+                InstrumentationManifest instrumentationManifest = null == manifest ? null :
+                    InstrumentationManifest.load(manifest, srcDir, dstDir, factory, classPathByDirUrls);
+                List<File> classFiles = new ArrayList<File>();
+
                 for (String fileName : fileNames) {
                     File source = new File(srcDir, fileName);
                     File destination = new File(dstDir, fileName);
@@ -181,6 +207,11 @@ public class ContinuableClassesInstrumentationTask extends MatchingTask {
                         log("Creating dir: " + destination.getParentFile(), Project.MSG_VERBOSE);
                         destination.getParentFile().mkdirs();
                     }
+                    
+                    if (null != instrumentationManifest && fileName.endsWith(".class")) {
+                        classFiles.add(source);
+                        continue;
+                    }
     
                     if (source.lastModified() < destination.lastModified()) {
                         log("Omitting " + source + " as " + destination + " is up to date", Project.MSG_VERBOSE);
@@ -204,21 +235,27 @@ public class ContinuableClassesInstrumentationTask extends MatchingTask {
                         List<URL> classPathByJar = new ArrayList<URL>(classPath);
                         classPathByJar.add(source.toURI().toURL());
                         
-                        ResourceTransformer jarTransformer = RewritingUtils.createTransformer(
-                           classPathByJar.toArray(new URL[]{})
+                        RewritingUtils.rewriteJar(
+                            source,
+                            destination,
+                            RewritingUtils.createResourceLoader(classPathByJar.toArray(new URL[]{})),
+                            factory,
+                            threads
                         );
-                        try {
-                            RewritingUtils.rewriteJar(
-                                new JarInputStream(new FileInputStream(source)),
-                                jarTransformer,
-                                new JarOutputStream(new FileOutputStream(destination))
-                            );
-                        } finally {
-                            jarTransformer.release();
-                        }
                         
                     }
                 }
+                
+                if (null != instrumentationManifest) {
+                    List<File> selectedClassFiles = instrumentationManifest.selectClassFiles(classFiles);
+                    for (File source : selectedClassFiles) {
+                        log("Rewriting " + source, Project.MSG_VERBOSE);
+                        instrumentationManifest.rewriteClassFile(source, dirTransformer);
+                    }
+                    instrumentationManifest.save();
+                    log("Omitting " + (classFiles.size() - selectedClassFiles.size()) + 
+                        " class files as up to date", Project.MSG_VERBOSE);
+                }
             } finally {
                 dirTransformer.release();
             }
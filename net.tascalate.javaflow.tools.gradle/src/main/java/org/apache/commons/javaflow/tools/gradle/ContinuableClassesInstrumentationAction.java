@@ -0,0 +1,80 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.tools.gradle;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+
+import org.apache.commons.javaflow.spi.ResourceTransformer;
+import org.apache.commons.javaflow.tools.jar.RewritingUtils;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+/**
+ * Work action that instruments a batch of class files for 
+ * {@link ContinuableClassesInstrumentationTask}.
+ */
+public abstract class ContinuableClassesInstrumentationAction implements WorkAction<ContinuableClassesInstrumentationAction.Parameters> {
+    
+    private static final Logger log = Logging.getLogger(ContinuableClassesInstrumentationAction.class);
+    
+    public interface Parameters extends WorkParameters {
+        ListProperty<File> getClassFiles();
+        DirectoryProperty getClassesDir();
+        DirectoryProperty getDestinationDir();
+        ListProperty<File> getClasspath();
+    }
+
+    @Override
+    public void execute() {
+        Parameters parameters = getParameters();
+        File inputDir = parameters.getClassesDir().get().getAsFile();
+        File outputDir = parameters.getDestinationDir().get().getAsFile();
+        
+        ResourceTransformer transformer = RewritingUtils.createTransformer(urlsOf(parameters.getClasspath().get()));
+        try {
+            for (File source : parameters.getClassFiles().get()) {
+                File destination = new File(outputDir, ContinuableClassesInstrumentationTask.relativePath(inputDir, source));
+                destination.getParentFile().mkdirs();
+                log.debug("Applying continuations support: " + source);
+                RewritingUtils.rewriteClassFile(source, transformer, destination);
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("Failed to instrument", ex);
+        } finally {
+            transformer.release();
+        }
+    }
+    
+    static URL[] urlsOf(List<File> files) {
+        URL[] result = new URL[files.size()];
+        for (int i = 0; i < result.length; i++) {
+            try {
+                result[i] = files.get(i).toURI().toURL();
+            } catch (MalformedURLException ex) {
+                throw new RuntimeException(ex.getMessage(), ex);
+            }
+        }
+        return result;
+    }
+}
@@ -16,27 +16,24 @@
 package org.apache.commons.javaflow.tools.gradle;
 
 import java.io.File;
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Set;
-import java.util.Collections;
+import java.util.concurrent.Callable;
 
 import org.apache.commons.javaflow.spi.RecursiveFilesIterator;
-import org.apache.commons.javaflow.spi.ResourceTransformer;
-import org.apache.commons.javaflow.tools.jar.RewritingUtils;
 import org.gradle.api.Action;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileCollection;
-import org.gradle.api.logging.LogLevel;
 import org.gradle.api.logging.Logger;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.SourceSet;
 import org.gradle.api.tasks.SourceSetContainer;
-import org.gradle.api.tasks.SourceSetOutput;
+import org.gradle.api.tasks.compile.AbstractCompile;
 
 /**
  * Gradle plugin that will apply Continuation class transformations on compiled
@@ -62,6 +59,7 @@ import org.gradle.api.tasks.SourceSetOutput;
  * continuations {
  *     // skip = true
  *     // includeTestClasses = false 
+ *     // incremental = false
  * }
  * 
  * repositories {
@@ -72,6 +70,15 @@ import org.gradle.api.tasks.SourceSetOutput;
  *     compile group: 'net.tascalate.javaflow', name: 'net.tascalate.javaflow.api', version: 'PUT_CORRECT_VERSION_HERE'
  * }
  * </pre>
+ * <p>
+ * The Java compiler of the source set writes class files to the intermediate directory 
+ * <code>build/javaflow/compiled/&lt;source set&gt;</code>, so <code>compileJava.destinationDir</code>
+ * holds classes that are not instrumented. Instrumented classes are written to the Java 
+ * classes directory of the source set output, which is used by <code>jar</code>, 
+ * <code>test</code> and other consumers of the source set output. Groovy and Scala 
+ * compilers of the source set, that read Java classes from the source set output, run 
+ * after the instrumentation. Classes compiled by other languages are not instrumented.
+ * </p>
  * 
  */
 public class ContinuableClassesInstrumentationPlugin implements Plugin<Project> {
@@ -87,111 +94,111 @@ public class ContinuableClassesInstrumentationPlugin implements Plugin<Project>
 
         Set<Task> compileJavaTasks = target.getTasksByName("compileJava", true);
         for (Task task : compileJavaTasks) {
-            addInstrumentActionToTask("main", task, config);
+            addInstrumentationTask("main", task, config);
         }
 
         Set<Task> compileJavaTestTasks = target.getTasksByName("compileTestJava", true);
         for (Task task : compileJavaTestTasks) {
-            addInstrumentActionToTask("test", task, config);
+            addInstrumentationTask("test", task, config);
         }
     }    
     
-    private void addInstrumentActionToTask(final String sourceType, final Task task, final ContinuableClassesInstrumentationPluginConfiguration config) {
-        task.doLast(new Action<Task>() {
+    private void addInstrumentationTask(final String sourceType, final Task task, final ContinuableClassesInstrumentationPluginConfiguration config) {
+        if (!(task instanceof AbstractCompile)) {
+            log.warn("Task " + task.getPath() + " is not a compile task, skipping instrumentation");
+            return;
+        }
+        final AbstractCompile compileTask = (AbstractCompile)task;
+        Project project = task.getProject();
+        SourceSetContainer sourceSetsContainer = (SourceSetContainer)project.getProperties().get("sourceSets");
+        final SourceSet sourceSet = sourceSetsContainer.findByName(sourceType);
+        if (null == sourceSet) {
+            return;
+        }
+        
+        // Compiler writes to the intermediate directory, and instrumented classes  
+        // are written to the classes directory of the source set instead
+        File compilerOutputDir = new File(project.getBuildDir(), "javaflow/compiled/" + sourceSet.getName());
+        compileTask.setDestinationDir(compilerOutputDir);
+        
+        final ContinuableClassesInstrumentationTask instrumentationTask = project.getTasks().create(
+            sourceSet.getTaskName("instrument", "continuableClasses"), ContinuableClassesInstrumentationTask.class
+        );
+        instrumentationTask.setDescription("Instruments continuable classes of " + sourceSet.getName() + " source set");
+        instrumentationTask.dependsOn(compileTask);
+        instrumentationTask.getClassesDir().set(compilerOutputDir);
+        instrumentationTask.getDestinationDir().set(project.getLayout().dir(project.provider(new Callable<File>() {
             @Override
-            public void execute(Task arg0) {
-                if (config.isSkip()) {
-                    log.info("Skipping execution.");
-                    return;
-                }
-                
-                if ("test".equals(sourceType) && !config.isIncludeTestClasses()) {
-                    log.info("Skipping execution on test classes.");
-                    return;
+            public File call() {
+                return sourceSet.getJava().getOutputDir();
+            }
+        })));
+        // Class path of the Java compiler, that includes classes of other languages compiled 
+        // earlier (like Kotlin), and run time dependencies. The runtime class path configuration 
+        // doesn't include the source set output, the task adds the compiler output directory itself
+        instrumentationTask.getClasspath().from(
+            new Callable<FileCollection>() {
+                @Override
+                public FileCollection call() {
+                    return compileTask.getClasspath();
                 }
-
-                try {
-                    Project project = task.getProject();
-                    SourceSetContainer sourceSetsContainer = (SourceSetContainer)project.getProperties().get("sourceSets");
-                    SourceSet sourceSet = sourceSetsContainer.getByName(sourceType);
-                    if (null != sourceSet) {
-                        FileCollection compileClasspath = sourceSet.getCompileClasspath();
-                        FileCollection runtimeClasspath = sourceSet.getRuntimeClasspath();
-                        SourceSetOutput output = sourceSet.getOutput();
-                        Set<File> classesDirs = output.getClassesDirs().getFiles();
-                        instrument(classesDirs, (null == runtimeClasspath ? compileClasspath : compileClasspath.plus(runtimeClasspath)).getFiles(), config);
-                    }
-                } catch (Exception e) {
-                    log.log(LogLevel.ERROR, "Coroutines instrumentation failed", e);
-                    throw new IllegalStateException("Coroutines instrumentation failed" , e);
+            },
+            project.getConfigurations().getByName(sourceSet.getRuntimeClasspathConfigurationName())
+        );
+        instrumentationTask.getSkip().set(project.provider(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return config.isSkip() || ("test".equals(sourceType) && !config.isIncludeTestClasses());
+            }
+        }));
+        instrumentationTask.getIncremental().set(project.provider(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return config.isIncremental();
+            }
+        }));
+        
+        final FileCollection classesDirs = sourceSet.getOutput().getClassesDirs();
+        if (classesDirs instanceof ConfigurableFileCollection) {
+            ((ConfigurableFileCollection)classesDirs).builtBy(instrumentationTask);
+        }
+        
+        // Groovy and Scala compilers read Java classes from the source set output
+        // (not from the compiler output directory), so they have to wait for instrumentation
+        final Set<String> dependentCompileTasks = new HashSet<String>(Arrays.asList(
+            sourceSet.getCompileTaskName("groovy"), sourceSet.getCompileTaskName("scala")
+        ));
+        project.getTasks().configureEach(new Action<Task>() {
+            @Override
+            public void execute(Task compileOtherTask) {
+                if (dependentCompileTasks.contains(compileOtherTask.getName())) {
+                    compileOtherTask.dependsOn(instrumentationTask);
                 }
             }
         });
-    }
-    
-    private void instrument(Set<File> classesDirs, Set<File> compileClasspath, ContinuableClassesInstrumentationPluginConfiguration config) {
-        try {
-            log.debug("Getting compile classpath");
-            List<URL> classPath = new ArrayList<URL>();
-            classPath.addAll(urlsOf(classesDirs));
-            classPath.addAll(urlsOf(compileClasspath));
-            
-            log.debug("Classpath for instrumentation is as follows: " + classPath);
-            ResourceTransformer dirTransformer = RewritingUtils.createTransformer(
-                classPath.toArray(new URL[] {})
-            );
-            try {
-                for (File inputDir : classesDirs) {
-                    if (!inputDir.isDirectory()) {
-                        continue;
-                    }                
-                    transformFiles(inputDir, dirTransformer);
+        
+        // Only the output of the Java compiler is instrumented, so classes compiled 
+        // by other languages (Groovy, Kotlin, Scala) stay as is
+        final DirectoryProperty javaClassesDir = instrumentationTask.getDestinationDir();
+        final Property<Boolean> skip = instrumentationTask.getSkip(); 
+        Task classesTask = project.getTasks().getByName(sourceSet.getClassesTaskName());
+        classesTask.dependsOn(instrumentationTask);
+        classesTask.doLast(new Action<Task>() {
+            @Override
+            public void execute(Task task) {
+                if (skip.get().booleanValue()) {
+                    return;
                 }
-            } finally {
-                dirTransformer.release();
-            }
-        } catch (IOException ioe) {
-            throw new IllegalStateException("Failed to instrument", ioe);
-        }
-    }
-    
-    private List<URL> urlsOf(Set<File> files) {
-        if (null == files) {
-            return Collections.emptyList();
-        }
-        List<URL> result = new ArrayList<URL>();
-        for (File file : files) {
-            URL url = resolveUrl(file);
-            if (null == url) {
-                continue;
-            }                
-            result.add(url);
-        }
-        return result.isEmpty() ? Collections.<URL>emptyList() : Collections.unmodifiableList(result);
-    }
-    
-    private void transformFiles(File inputDirectory, ResourceTransformer dirTransformer) throws IOException {
-        long now = System.currentTimeMillis();
-
-        for (File source : RecursiveFilesIterator.scanClassFiles(inputDirectory)) {
-            if (source.lastModified() <= now) {
-                log.debug("Applying continuations support: " + source);
-                boolean rewritten = RewritingUtils.rewriteClassFile(source, dirTransformer, source);
-                if (rewritten) {
-                    log.info("Rewritten continuation-enabled class file: " + source);
+                File javaDir = javaClassesDir.get().getAsFile();
+                for (File dir : classesDirs.getFiles()) {
+                    if (!dir.equals(javaDir) && dir.isDirectory() && RecursiveFilesIterator.scanClassFiles(dir).iterator().hasNext()) {
+                        task.getLogger().warn(
+                            "Classes of " + dir + " are not instrumented: only Java classes of the source set " + 
+                            sourceSet.getName() + " are supported by the continuations plugin"
+                        );
+                    }
                 }
             }
-        }
-    }
-
-    private URL resolveUrl(File resource) {
-        if (!resource.exists()) {
-            return null;
-        }
-        try {
-            return resource.toURI().toURL();
-        } catch (final MalformedURLException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
+        });
     }
-}
\ No newline at end of file
+}
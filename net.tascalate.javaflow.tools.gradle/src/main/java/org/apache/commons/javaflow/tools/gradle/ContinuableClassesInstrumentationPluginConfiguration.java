@@ -19,6 +19,7 @@ public class ContinuableClassesInstrumentationPluginConfiguration {
 
     private boolean skip = false;
     private boolean includeTestClasses = true;
+    private boolean incremental = true;
     
     public boolean isSkip() {
         return skip;
@@ -35,4 +36,12 @@ public class ContinuableClassesInstrumentationPluginConfiguration {
     public void setIncludeTestClasses(boolean includeTestClasses) {
         this.includeTestClasses = includeTestClasses;
     }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
 }
@@ -0,0 +1,292 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.tools.gradle;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.commons.javaflow.spi.RecursiveFilesIterator;
+import org.apache.commons.javaflow.spi.ResourceTransformationFactory;
+import org.apache.commons.javaflow.tools.jar.InstrumentationManifest;
+import org.apache.commons.javaflow.tools.jar.RewritingUtils;
+import org.gradle.api.Action;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileType;
+import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.InputDirectory;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.LocalState;
+import org.gradle.api.tasks.OutputDirectory;
+import org.gradle.api.tasks.PathSensitive;
+import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.work.ChangeType;
+import org.gradle.work.FileChange;
+import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
+
+/**
+ * Gradle task that applies Continuation class transformations (bytecode instrumentation)
+ * to the class files of the compiler output directory and writes them to the classes 
+ * directory of the source set. Other files are copied as is.
+ * <p>
+ * Inputs and outputs of the task are declared, so it takes part in up-to-date checks
+ * and may be loaded from the build cache. Only changed class files and classes that 
+ * depend on them are instrumented when the task is executed incrementally. Class files 
+ * are instrumented by workers, one batch per worker.
+ */
+@CacheableTask
+public class ContinuableClassesInstrumentationTask extends DefaultTask {
+    
+    private final WorkerExecutor workerExecutor;
+    
+    private final DirectoryProperty classesDir;
+    private final ConfigurableFileCollection classpath;
+    private final DirectoryProperty destinationDir;
+    private final Property<Boolean> skip;
+    private final Property<Boolean> incremental;
+    private final Property<Integer> maxWorkers;
+    
+    @Inject
+    public ContinuableClassesInstrumentationTask(WorkerExecutor workerExecutor) {
+        this.workerExecutor = workerExecutor;
+        
+        ObjectFactory objects = getProject().getObjects();
+        classesDir = objects.directoryProperty();
+        classpath = getProject().files();
+        destinationDir = objects.directoryProperty();
+        skip = objects.property(Boolean.class).convention(Boolean.FALSE);
+        incremental = objects.property(Boolean.class).convention(Boolean.TRUE);
+        maxWorkers = objects.property(Integer.class).convention(
+            Integer.valueOf(getProject().getGradle().getStartParameter().getMaxWorkerCount())
+        );
+    }
+
+    /**
+     * Directory with compiled class files to instrument.
+     */
+    @SkipWhenEmpty
+    @InputDirectory
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public DirectoryProperty getClassesDir() {
+        return classesDir;
+    }
+
+    /**
+     * Class path to resolve classes referenced from the instrumented class files.
+     */
+    @Classpath
+    public ConfigurableFileCollection getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * Directory where instrumented class files are written.
+     */
+    @OutputDirectory
+    public DirectoryProperty getDestinationDir() {
+        return destinationDir;
+    }
+
+    /**
+     * Whether or not to copy class files without instrumentation.
+     */
+    @Input
+    public Property<Boolean> getSkip() {
+        return skip;
+    }
+    
+    /**
+     * Whether or not to instrument only changed class files and their dependents.
+     */
+    @Internal
+    public Property<Boolean> getIncremental() {
+        return incremental;
+    }
+    
+    /**
+     * Maximum number of workers that instrument class files, by default the maximum 
+     * number of workers of the build.
+     */
+    @Internal
+    public Property<Integer> getMaxWorkers() {
+        return maxWorkers;
+    }
+    
+    /**
+     * Options of the transformation, like direct calls of continuable methods.
+     */
+    @Input
+    public String getTransformerOptions() {
+        return RewritingUtils.createTransformerFactoryInstance().toString();
+    }
+    
+    /**
+     * Digests of the class files instrumented by the previous execution.
+     */
+    @LocalState
+    public File getManifestFile() {
+        return new File(getTemporaryDir(), "classes.digests");
+    }
+
+    @TaskAction
+    public void instrument(InputChanges inputChanges) throws IOException {
+        final File inputDir = classesDir.get().getAsFile();
+        final File outputDir = destinationDir.get().getAsFile();
+        File manifestFile = getManifestFile();
+        boolean instrument = !skip.get().booleanValue();
+        // The manifest is missing when the previous execution failed 
+        boolean incrementalBuild = instrument && 
+                                   incremental.get().booleanValue() && 
+                                   inputChanges.isIncremental() && 
+                                   manifestFile.isFile();
+        
+        List<File> changedClassFiles = new ArrayList<File>();
+        List<File> removedClassFiles = new ArrayList<File>();
+        if (incrementalBuild) {
+            for (FileChange change : inputChanges.getFileChanges(classesDir)) {
+                if (change.getFileType() != FileType.FILE) {
+                    continue;
+                }
+                File source = change.getFile();
+                if (change.getChangeType() == ChangeType.REMOVED) {
+                    new File(outputDir, relativePath(inputDir, source)).delete();
+                    if (isClassFile(source)) {
+                        removedClassFiles.add(source);
+                    }
+                } else if (isClassFile(source)) {
+                    changedClassFiles.add(source);
+                } else {
+                    copy(source, new File(outputDir, relativePath(inputDir, source)));
+                }
+            }
+        } else {
+            delete(outputDir);
+            delete(manifestFile);
+            outputDir.mkdirs();
+            for (File source : RecursiveFilesIterator.scanFiles(inputDir, RecursiveFilesIterator.ANY_READABLE_FILE)) {
+                if (instrument && isClassFile(source)) {
+                    changedClassFiles.add(source);
+                } else {
+                    copy(source, new File(outputDir, relativePath(inputDir, source)));
+                }
+            }
+        }
+        
+        if (!instrument) {
+            getLogger().info("Skipping execution.");
+            return;
+        }
+
+        final List<File> classPath = new ArrayList<File>();
+        classPath.add(inputDir);
+        for (File file : classpath.getFiles()) {
+            if (file.exists()) {
+                classPath.add(file);
+            }
+        }
+        
+        ResourceTransformationFactory factory = RewritingUtils.createTransformerFactoryInstance();
+        InstrumentationManifest manifest = InstrumentationManifest.load(
+            manifestFile, inputDir, outputDir, factory, ContinuableClassesInstrumentationAction.urlsOf(classPath)
+        );
+        List<File> selected = incrementalBuild ?
+            manifest.selectClassFiles(changedClassFiles, removedClassFiles) :
+            manifest.selectClassFiles(changedClassFiles);
+        
+        int batches = Math.min(maxWorkers.get().intValue(), selected.size());
+        WorkQueue workQueue = workerExecutor.noIsolation();
+        for (int i = 0; i < batches; i++) {
+            final List<File> batch = new ArrayList<File>();
+            for (int j = i; j < selected.size(); j += batches) {
+                batch.add(selected.get(j));
+            }
+            workQueue.submit(
+                ContinuableClassesInstrumentationAction.class, 
+                new Action<ContinuableClassesInstrumentationAction.Parameters>() {
+                    @Override
+                    public void execute(ContinuableClassesInstrumentationAction.Parameters parameters) {
+                        parameters.getClassFiles().set(batch);
+                        parameters.getClassesDir().set(inputDir);
+                        parameters.getDestinationDir().set(outputDir);
+                        parameters.getClasspath().set(classPath);
+                    }
+                }
+            );
+        }
+        workQueue.await();
+        
+        for (File source : selected) {
+            manifest.recordClassFile(source);
+        }
+        manifest.save();
+        getLogger().info(
+            "Instrumented " + selected.size() + " class files of " + inputDir + 
+            (incrementalBuild ? " incrementally" : "") + " in " + batches + " batch(es)"
+        );
+    }
+    
+    private static boolean isClassFile(File file) {
+        return file.getName().endsWith(".class");
+    }
+    
+    static String relativePath(File dir, File file) {
+        return file.getAbsolutePath().substring(dir.getAbsolutePath().length() + 1);
+    }
+    
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException("Unable to delete " + file);
+        }
+    }
+    
+    private static void copy(File source, File destination) throws IOException {
+        destination.getParentFile().mkdirs();
+        InputStream in = new FileInputStream(source);
+        try {
+            OutputStream out = new FileOutputStream(destination);
+            try {
+                RewritingUtils.copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+}
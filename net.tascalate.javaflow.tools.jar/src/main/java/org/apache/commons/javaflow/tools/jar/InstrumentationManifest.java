@@ -0,0 +1,650 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.tools.jar;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.apache.commons.javaflow.spi.ClassHeaderReader;
+import org.apache.commons.javaflow.spi.RecursiveFilesIterator;
+import org.apache.commons.javaflow.spi.ResourceTransformationFactory;
+import org.apache.commons.javaflow.spi.ResourceTransformer;
+
+/**
+ * Persistent record of the class files instrumented in a directory, so that
+ * subsequent builds skip unchanged class files without reading them through
+ * the transformer.
+ * <p>
+ * For every class file the manifest keeps size and modification time of the input
+ * and the output files, digests of the bytes before and after instrumentation, a
+ * digest of the class shape (super types, method headers and annotations) and
+ * references to other classes of the same directory. When the shape of a class
+ * is changed or the class is removed, its subclasses and all classes that refer
+ * to them are instrumented again, because the continuable methods they call may
+ * be changed. For in-place instrumentation the original bytes of rewritten classes
+ * are kept next to the manifest to make it possible.
+ * <p>
+ * The manifest is removed by {@link #selectClassFiles(Collection)} and written back
+ * by {@link #save()}, so a failed build starts from scratch next time. The methods
+ * {@link #rewriteClassFile(File, ResourceTransformer)} and {@link #recordClassFile(File)}
+ * may be invoked concurrently, other methods are not thread-safe.
+ */
+public final class InstrumentationManifest {
+    private static final Logger log = LoggerFactory.getLogger(InstrumentationManifest.class);
+
+    private static final String HEADER = "#javaflow-instrumentation-manifest 1";
+    private static final String SKIP_ANNOTATION = "Lorg/apache/commons/javaflow/core/Skip;";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final File manifestFile;
+    private final File originalsDir;
+    private final File inputDir;
+    private final File outputDir;
+    private final boolean inPlace;
+    private final String configuration;
+    private final boolean invalidateAll;
+
+    private final Map<String, Entry> previousEntries;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private InstrumentationManifest(File manifestFile,
+                                    File inputDir,
+                                    File outputDir,
+                                    boolean inPlace,
+                                    String configuration,
+                                    boolean invalidateAll,
+                                    Map<String, Entry> previousEntries) {
+        this.manifestFile = manifestFile;
+        this.originalsDir = new File(manifestFile.getPath() + ".originals");
+        this.inputDir = inputDir;
+        this.outputDir = outputDir;
+        this.inPlace = inPlace;
+        this.configuration = configuration;
+        this.invalidateAll = invalidateAll;
+        this.previousEntries = previousEntries;
+    }
+
+    /**
+     * Loads the manifest of the class files instrumented from the input directory
+     * to the output directory (that may be the same). All class files are instrumented
+     * again when the transformation factory or the class path is changed since
+     * the manifest was saved.
+     *
+     * @param manifestFile the file where the manifest is stored
+     * @param inputDir the directory with class files to instrument
+     * @param outputDir the directory where instrumented class files are written
+     * @param factory the factory of transformers used for instrumentation
+     * @param classPath the class path used for instrumentation
+     * @return the loaded manifest, empty if there is no valid manifest file
+     * @throws IOException if the manifest file can't be read
+     */
+    public static InstrumentationManifest load(File manifestFile,
+                                               File inputDir,
+                                               File outputDir,
+                                               ResourceTransformationFactory factory,
+                                               URL[] classPath) throws IOException {
+        boolean inPlace = inputDir.getCanonicalFile().equals(outputDir.getCanonicalFile());
+        String configuration = describe(factory, classPath, inputDir, outputDir);
+
+        String previousConfiguration = null;
+        Map<String, Entry> previousEntries = new HashMap<String, Entry>();
+        if (manifestFile.isFile()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+            try {
+                if (HEADER.equals(reader.readLine())) {
+                    previousConfiguration = reader.readLine();
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        Entry entry = Entry.parse(line);
+                        previousEntries.put(entry.path, entry);
+                    }
+                } else {
+                    log.warn("Unsupported instrumentation manifest " + manifestFile + " is ignored");
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Corrupted instrumentation manifest " + manifestFile + " is ignored", ex);
+                previousConfiguration = null;
+                previousEntries.clear();
+            } finally {
+                reader.close();
+            }
+        }
+
+        InstrumentationManifest result = new InstrumentationManifest(
+            manifestFile, inputDir.getAbsoluteFile(), outputDir.getAbsoluteFile(), inPlace,
+            configuration, !configuration.equals(previousConfiguration), previousEntries
+        );
+        if (previousEntries.isEmpty()) {
+            // Originals left from a failed build can't be matched with class files
+            deleteRecursively(result.originalsDir);
+        }
+        return result;
+    }
+
+    /**
+     * Selects class files that must be instrumented: new and modified class files
+     * as well as class files that depend on classes with changed shape. Class files
+     * removed from the input directory are forgotten.
+     *
+     * @param sources all class files of the input directory
+     * @return class files to pass to {@link #rewriteClassFile(File, ResourceTransformer)}
+     * @throws IOException if class files can't be read
+     */
+    public List<File> selectClassFiles(Collection<File> sources) throws IOException {
+        deleteManifestFile();
+
+        List<File> selected = new ArrayList<File>();
+        Set<String> changedClasses = new HashSet<String>();
+        Set<String> paths = new HashSet<String>();
+        for (File source : sources) {
+            String path = pathOf(source);
+            paths.add(path);
+            selectClassFile(source, path, selected, changedClasses);
+        }
+
+        for (Entry entry : previousEntries.values()) {
+            if (!paths.contains(entry.path)) {
+                forgetClassFile(entry, changedClasses);
+            }
+        }
+        selectDependents(selected, changedClasses);
+        return selected;
+    }
+
+    /**
+     * Selects class files that must be instrumented when the build tool reports changes 
+     * of the input directory itself. Class files that are not reported are considered 
+     * unchanged, but still may be selected as dependents of changed classes.
+     *
+     * @param changedSources added and modified class files of the input directory
+     * @param removedSources class files removed from the input directory
+     * @return class files to pass to {@link #rewriteClassFile(File, ResourceTransformer)}
+     * @throws IOException if class files can't be read
+     * @see #selectClassFiles(Collection)
+     */
+    public List<File> selectClassFiles(Collection<File> changedSources, Collection<File> removedSources) throws IOException {
+        deleteManifestFile();
+
+        Map<String, File> changedPaths = new HashMap<String, File>();
+        for (File source : changedSources) {
+            changedPaths.put(pathOf(source), source);
+        }
+        Set<String> removedPaths = new HashSet<String>();
+        for (File source : removedSources) {
+            removedPaths.add(pathOf(source));
+        }
+
+        List<File> selected = new ArrayList<File>();
+        Set<String> changedClasses = new HashSet<String>();
+        for (Entry entry : previousEntries.values()) {
+            if (removedPaths.contains(entry.path)) {
+                forgetClassFile(entry, changedClasses);
+            } else if (changedPaths.containsKey(entry.path)) {
+                continue;
+            } else if (invalidateAll) {
+                selected.add(new File(inputDir, entry.path));
+            } else {
+                entries.put(entry.path, entry);
+            }
+        }
+        for (Map.Entry<String, File> changed : changedPaths.entrySet()) {
+            selectClassFile(changed.getValue(), changed.getKey(), selected, changedClasses);
+        }
+        selectDependents(selected, changedClasses);
+        return selected;
+    }
+    
+    private void selectClassFile(File source, String path, List<File> selected, Set<String> changedClasses) throws IOException {
+        Entry entry = previousEntries.get(path);
+        if (null == entry) {
+            selected.add(source);
+            // Class name is never read from the new class file
+            changedClasses.add(path.substring(0, path.length() - ".class".length()));
+            return;
+        }
+
+        File output = outputOf(path);
+        if (!invalidateAll && entry.isStamped(source, output, inPlace)) {
+            entries.put(path, entry);
+            return;
+        }
+
+        byte[] bytes = RewritingUtils.toByteArray(source);
+        String digest = digest(bytes);
+        boolean instrumented = inPlace && digest.equals(entry.outputDigest);
+        if (!invalidateAll && (instrumented || isUnchangedCopy(digest, entry, output))) {
+            // Touched but not modified
+            entries.put(path, entry.restamp(source, output));
+            return;
+        }
+        selected.add(source);
+        if (!instrumented && !entry.shape.equals(shapeOf(new ClassHeaderReader(bytes)))) {
+            changedClasses.add(entry.className);
+        }
+    }
+    
+    private void forgetClassFile(Entry entry, Set<String> changedClasses) {
+        changedClasses.add(entry.className);
+        deleteOriginal(entry.path);
+    }
+    
+    private void selectDependents(List<File> selected, Set<String> changedClasses) {
+        if (changedClasses.isEmpty()) {
+            return;
+        }
+        // Subclasses inherit methods of changed classes
+        Set<String> affectedClasses = new HashSet<String>(changedClasses);
+        boolean extended;
+        do {
+            extended = false;
+            for (Entry entry : entries.values()) {
+                if (!affectedClasses.contains(entry.className) &&
+                    !Collections.disjoint(entry.supertypes, affectedClasses)) {
+                    affectedClasses.add(entry.className);
+                    extended = true;
+                }
+            }
+        } while (extended);
+
+        for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
+            Entry entry = i.next();
+            if (affectedClasses.contains(entry.className) ||
+                !Collections.disjoint(entry.references, affectedClasses)) {
+                selected.add(new File(inputDir, entry.path));
+                i.remove();
+            }
+        }
+    }
+    
+    private void deleteManifestFile() throws IOException {
+        if (manifestFile.exists() && !manifestFile.delete()) {
+            throw new IOException("Unable to delete " + manifestFile);
+        }
+    }
+
+    /**
+     * Instruments the class file selected by {@link #selectClassFiles(Collection)}
+     * and records it in the manifest. Class files already marked as instrumented
+     * are not passed to the transformer.
+     *
+     * @param source the class file of the input directory
+     * @param transformer the transformer to apply
+     * @return true if the instrumented class differs from the original one
+     * @throws IOException if the class file can't be read or written
+     */
+    public boolean rewriteClassFile(File source, ResourceTransformer transformer) throws IOException {
+        String path = pathOf(source);
+        File output = outputOf(path);
+        byte[] bytes = RewritingUtils.toByteArray(source);
+        byte[] original = bytes;
+
+        Entry previous = previousEntries.get(path);
+        if (inPlace && null != previous && previous.isRewritten()) {
+            // Dependent class that is instrumented already
+            File stored = originalOf(path);
+            if (stored.isFile() && digest(bytes).equals(previous.outputDigest)) {
+                byte[] storedBytes = RewritingUtils.toByteArray(stored);
+                if (digest(storedBytes).equals(previous.inputDigest)) {
+                    original = storedBytes;
+                }
+            }
+        }
+
+        ClassHeaderReader header = new ClassHeaderReader(original);
+        byte[] transformed = header.getClassAnnotations().contains(SKIP_ANNOTATION) ?
+                             original : transformer.transform(original);
+        boolean rewritten = transformed != original;
+        if (transformed != bytes || !inPlace) {
+            output.getAbsoluteFile().getParentFile().mkdirs();
+            RewritingUtils.replaceFile(output, transformed);
+        }
+        if (inPlace) {
+            if (!rewritten) {
+                deleteOriginal(path);
+            } else if (original == bytes) {
+                File stored = originalOf(path);
+                stored.getParentFile().mkdirs();
+                RewritingUtils.replaceFile(stored, original);
+            }
+        }
+
+        recordClassFile(path, source, output, header, original, rewritten ? transformed : original);
+        return rewritten;
+    }
+
+    /**
+     * Records the class file selected by {@link #selectClassFiles(Collection)} that is 
+     * instrumented to the output directory by other means, like worker processes 
+     * of the build tool.
+     *
+     * @param source the class file of the input directory
+     * @throws IOException if the class file or its instrumented counterpart can't be read
+     */
+    public void recordClassFile(File source) throws IOException {
+        if (inPlace) {
+            throw new IllegalStateException("Original class files are not available for in-place instrumentation");
+        }
+        String path = pathOf(source);
+        File output = outputOf(path);
+        byte[] original = RewritingUtils.toByteArray(source);
+        byte[] transformed = RewritingUtils.toByteArray(output);
+        recordClassFile(path, source, output, new ClassHeaderReader(original), original, transformed);
+    }
+
+    private void recordClassFile(String path, File source, File output, ClassHeaderReader header, 
+                                 byte[] original, byte[] transformed) throws IOException {
+        String inputDigest = digest(original);
+        entries.put(path, new Entry(
+            path, header.getClassName(),
+            source.length(), source.lastModified(), output.length(), output.lastModified(),
+            inputDigest, transformed == original ? inputDigest : digest(transformed),
+            shapeOf(header), supertypesOf(header), referencesOf(header)
+        ));
+    }
+
+    /**
+     * Writes the manifest with all class files recorded since it was loaded.
+     *
+     * @throws IOException if the manifest file can't be written
+     */
+    public void save() throws IOException {
+        Map<String, Entry> sortedEntries = new TreeMap<String, Entry>(entries);
+        Set<String> classNames = new HashSet<String>();
+        for (Entry entry : sortedEntries.values()) {
+            classNames.add(entry.className);
+        }
+
+        StringBuilder content = new StringBuilder();
+        content.append(HEADER).append('\n');
+        content.append(configuration).append('\n');
+        for (Entry entry : sortedEntries.values()) {
+            // Only classes of this directory may invalidate dependents
+            entry.format(content, classNames);
+            content.append('\n');
+        }
+        manifestFile.getAbsoluteFile().getParentFile().mkdirs();
+        RewritingUtils.replaceFile(manifestFile, content.toString().getBytes("UTF-8"));
+    }
+
+    private boolean isUnchangedCopy(String digest, Entry entry, File output) throws IOException {
+        return !inPlace &&
+               digest.equals(entry.inputDigest) &&
+               output.isFile() &&
+               digest(RewritingUtils.toByteArray(output)).equals(entry.outputDigest);
+    }
+
+    private String pathOf(File source) {
+        String root = inputDir.getPath() + File.separator;
+        String file = source.getAbsolutePath();
+        if (!file.startsWith(root)) {
+            throw new IllegalArgumentException(source + " is not located in " + inputDir);
+        }
+        return file.substring(root.length()).replace(File.separatorChar, '/');
+    }
+
+    private File outputOf(String path) {
+        return new File(outputDir, path);
+    }
+
+    private File originalOf(String path) {
+        return new File(originalsDir, path);
+    }
+
+    private void deleteOriginal(String path) {
+        if (inPlace) {
+            originalOf(path).delete();
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (null != children) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static String shapeOf(ClassHeaderReader header) throws IOException {
+        StringBuilder shape = new StringBuilder();
+        shape.append(header.getAccess()).append(' ').append(header.getSuperName());
+        for (String interfaceName : new TreeSet<String>(Arrays.asList(header.getInterfaces()))) {
+            shape.append(' ').append(interfaceName);
+        }
+        for (String annotation : new TreeSet<String>(header.getClassAnnotations())) {
+            shape.append(" @").append(annotation);
+        }
+        for (String method : new TreeSet<String>(header.getMethodHeaders())) {
+            shape.append('\n').append(method);
+        }
+        return digest(shape.toString().getBytes("UTF-8"));
+    }
+
+    private static Set<String> supertypesOf(ClassHeaderReader header) {
+        Set<String> result = new HashSet<String>(Arrays.asList(header.getInterfaces()));
+        String superName = header.getSuperName();
+        if (null != superName) {
+            result.add(superName);
+        }
+        return result;
+    }
+
+    private static Set<String> referencesOf(ClassHeaderReader header) {
+        Set<String> result = header.getReferencedClasses();
+        // Annotations are referenced by descriptors only
+        Set<String> annotations = new HashSet<String>(header.getClassAnnotations());
+        annotations.addAll(header.getMethodAnnotations());
+        for (String annotation : annotations) {
+            if (annotation.startsWith("L") && annotation.endsWith(";")) {
+                result.add(annotation.substring(1, annotation.length() - 1));
+            }
+        }
+        result.remove(header.getClassName());
+        return result;
+    }
+
+    private static String describe(ResourceTransformationFactory factory,
+                                   URL[] classPath,
+                                   File inputDir,
+                                   File outputDir) throws IOException {
+        // Class files of own directories are tracked by the manifest itself
+        Set<File> ownDirs = new HashSet<File>();
+        ownDirs.add(inputDir.getCanonicalFile());
+        ownDirs.add(outputDir.getCanonicalFile());
+
+        StringBuilder stamps = new StringBuilder();
+        for (URL url : classPath) {
+            File file = fileOf(url);
+            if (null == file) {
+                stamps.append(url);
+            } else if (ownDirs.contains(file.getCanonicalFile())) {
+                continue;
+            } else if (file.isDirectory()) {
+                long count = 0, size = 0, modified = 0;
+                for (File classFile : RecursiveFilesIterator.scanClassFiles(file)) {
+                    count++;
+                    size += classFile.length();
+                    modified = Math.max(modified, classFile.lastModified());
+                }
+                stamps.append(file).append(' ').append(count).append(' ').append(size).append(' ').append(modified);
+            } else {
+                stamps.append(file).append(' ').append(file.length()).append(' ').append(file.lastModified());
+            }
+            stamps.append('\n');
+        }
+
+        String factoryDescription;
+        try {
+            // Factories without own description have no options
+            factoryDescription = Object.class.equals(factory.getClass().getMethod("toString").getDeclaringClass()) ?
+                                 factory.getClass().getName() : factory.toString();
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return factoryDescription + ' ' + digest(stamps.toString().getBytes("UTF-8"));
+    }
+
+    private static File fileOf(URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException ex) {
+            return null;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private static String digest(byte[] bytes) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        byte[] hash = messageDigest.digest(bytes);
+        char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            result[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0x0F];
+            result[i * 2 + 1] = HEX_DIGITS[hash[i] & 0x0F];
+        }
+        return new String(result);
+    }
+
+    static final class Entry {
+        final String path;
+        final String className;
+        final long inputLength;
+        final long inputModified;
+        final long outputLength;
+        final long outputModified;
+        final String inputDigest;
+        final String outputDigest;
+        final String shape;
+        final Set<String> supertypes;
+        final Set<String> references;
+
+        Entry(String path, String className,
+              long inputLength, long inputModified, long outputLength, long outputModified,
+              String inputDigest, String outputDigest, String shape,
+              Set<String> supertypes, Set<String> references) {
+            this.path = path;
+            this.className = className;
+            this.inputLength = inputLength;
+            this.inputModified = inputModified;
+            this.outputLength = outputLength;
+            this.outputModified = outputModified;
+            this.inputDigest = inputDigest;
+            this.outputDigest = outputDigest;
+            this.shape = shape;
+            this.supertypes = supertypes;
+            this.references = references;
+        }
+
+        boolean isRewritten() {
+            return !inputDigest.equals(outputDigest);
+        }
+
+        boolean isStamped(File input, File output, boolean inPlace) {
+            return input.length() == inputLength &&
+                   input.lastModified() == inputModified &&
+                   (inPlace || (output.length() == outputLength && output.lastModified() == outputModified));
+        }
+
+        Entry restamp(File input, File output) {
+            return new Entry(
+                path, className,
+                input.length(), input.lastModified(), output.length(), output.lastModified(),
+                inputDigest, outputDigest, shape, supertypes, references
+            );
+        }
+
+        void format(StringBuilder out, Set<String> classNames) {
+            out.append(path).append('\t')
+               .append(className).append('\t')
+               .append(inputLength).append('\t')
+               .append(inputModified).append('\t')
+               .append(outputLength).append('\t')
+               .append(outputModified).append('\t')
+               .append(inputDigest).append('\t')
+               .append(outputDigest).append('\t')
+               .append(shape).append('\t');
+            formatNames(out, supertypes, classNames);
+            out.append('\t');
+            formatNames(out, references, classNames);
+        }
+
+        static Entry parse(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 11) {
+                throw new IllegalArgumentException("Invalid manifest entry: " + line);
+            }
+            return new Entry(
+                fields[0], fields[1],
+                Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                Long.parseLong(fields[4]), Long.parseLong(fields[5]),
+                fields[6], fields[7], fields[8],
+                parseNames(fields[9]), parseNames(fields[10])
+            );
+        }
+
+        private static void formatNames(StringBuilder out, Set<String> names, Set<String> classNames) {
+            boolean first = true;
+            for (String name : new TreeSet<String>(names)) {
+                if (classNames.contains(name)) {
+                    if (!first) {
+                        out.append(' ');
+                    }
+                    out.append(name);
+                    first = false;
+                }
+            }
+        }
+
+        private static Set<String> parseNames(String field) {
+            return field.length() == 0 ?
+                   Collections.<String>emptySet() :
+                   new HashSet<String>(Arrays.asList(field.split(" ")));
+        }
+    }
+}
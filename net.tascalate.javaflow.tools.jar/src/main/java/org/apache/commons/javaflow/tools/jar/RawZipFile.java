@@ -0,0 +1,280 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.tools.jar;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Central directory of a ZIP file with locations of the compressed data, so entries
+ * may be copied to another ZIP file by {@link RawZipWriter} without decompression.
+ * ZIP64 archives, multi-disk archives, encrypted entries, compression methods
+ * other than STORED and DEFLATED, and duplicate entry names are not supported.
+ */
+final class RawZipFile implements Closeable {
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int UTF8_FLAG = 0x800;
+
+    static final class Entry {
+        final byte[] name;
+        final int versionMadeBy;
+        final int versionNeeded;
+        final int flags;
+        final int method;
+        final int dosTime;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final byte[] extra;
+        final byte[] comment;
+        final int internalAttributes;
+        final long externalAttributes;
+        final long localHeaderOffset;
+
+        Entry(byte[] name, int versionMadeBy, int versionNeeded, int flags, int method, int dosTime, 
+              long crc, long compressedSize, long size, byte[] extra, byte[] comment, 
+              int internalAttributes, long externalAttributes, long localHeaderOffset) {
+            this.name = name;
+            this.versionMadeBy = versionMadeBy;
+            this.versionNeeded = versionNeeded;
+            this.flags = flags;
+            this.method = method;
+            this.dosTime = dosTime;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.extra = extra;
+            this.comment = comment;
+            this.internalAttributes = internalAttributes;
+            this.externalAttributes = externalAttributes;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+    }
+
+    private final RandomAccessFile file;
+    private final Map<String, Entry> entries;
+    private final byte[] comment;
+
+    private RawZipFile(RandomAccessFile file, Map<String, Entry> entries, byte[] comment) {
+        this.file = file;
+        this.entries = entries;
+        this.comment = comment;
+    }
+
+    /**
+     * Reads the central directory of the ZIP file.
+     * 
+     * @param zipFile the ZIP file to read
+     * @return the opened ZIP file, or null if it's not supported
+     * @throws IOException if the file can't be read
+     */
+    static RawZipFile open(File zipFile) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(zipFile, "r");
+        boolean opened = false;
+        try {
+            RawZipFile result = readCentralDirectory(file);
+            opened = null != result;
+            return result;
+        } finally {
+            if (!opened) {
+                file.close();
+            }
+        }
+    }
+
+    /**
+     * Finds the entry by name. Names are decoded as UTF-8 when the general purpose 
+     * flag 0x800 is set, and as CP437 otherwise.
+     */
+    Entry getEntry(String name) {
+        return entries.get(name);
+    }
+
+    /**
+     * Comment of the archive, as raw bytes of the end of central directory record.
+     */
+    byte[] getComment() {
+        return comment;
+    }
+
+    /**
+     * Copies compressed data of the entry as is.
+     */
+    void copyData(Entry entry, OutputStream out) throws IOException {
+        byte[] header = new byte[30];
+        file.seek(entry.localHeaderOffset);
+        file.readFully(header);
+        if (readInt(header, 0) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Invalid local header of ZIP entry " + decodeName(entry.name, entry.flags));
+        }
+        // Local extra field may differ from the one in the central directory
+        file.seek(entry.localHeaderOffset + header.length + readShort(header, 26) + readShort(header, 28));
+        byte[] buffer = new byte[8192];
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            int n = (int)Math.min(buffer.length, remaining);
+            file.readFully(buffer, 0, n);
+            out.write(buffer, 0, n);
+            remaining -= n;
+        }
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static RawZipFile readCentralDirectory(RandomAccessFile file) throws IOException {
+        long length = file.length();
+        int tailLength = (int)Math.min(length, END_SIZE + 0xFFFF + ZIP64_LOCATOR_SIZE);
+        byte[] tail = new byte[tailLength];
+        file.seek(length - tailLength);
+        file.readFully(tail);
+
+        int end = -1;
+        for (int i = tailLength - END_SIZE; i >= 0; i--) {
+            if (readInt(tail, i) == END_SIGNATURE && i + END_SIZE + readShort(tail, i + 20) == tailLength) {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return null;
+        }
+        if (end >= ZIP64_LOCATOR_SIZE && readInt(tail, end - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE) {
+            return null;
+        }
+
+        int diskNumber = readShort(tail, end + 4);
+        int centralDirectoryDisk = readShort(tail, end + 6);
+        int count = readShort(tail, end + 10);
+        byte[] comment = copyOf(tail, end + END_SIZE, readShort(tail, end + 20));
+        long centralDirectorySize = readUnsignedInt(tail, end + 12);
+        long centralDirectoryOffset = readUnsignedInt(tail, end + 16);
+        if (diskNumber != 0 || centralDirectoryDisk != 0 || count == 0xFFFF || centralDirectoryOffset == 0xFFFFFFFFL) {
+            return null;
+        }
+        // Offsets are shifted when data is prepended to the archive, like launch scripts
+        long base = (length - tailLength + end) - centralDirectorySize - centralDirectoryOffset;
+        if (base < 0) {
+            return null;
+        }
+
+        byte[] directory = new byte[(int)centralDirectorySize];
+        file.seek(base + centralDirectoryOffset);
+        file.readFully(directory);
+
+        Map<String, Entry> entries = new HashMap<String, Entry>(count * 2);
+        int offset = 0;
+        for (int i = 0; i < count; i++) {
+            if (offset + 46 > directory.length || readInt(directory, offset) != CENTRAL_HEADER_SIGNATURE) {
+                return null;
+            }
+            int flags = readShort(directory, offset + 8);
+            int method = readShort(directory, offset + 10);
+            long compressedSize = readUnsignedInt(directory, offset + 20);
+            long size = readUnsignedInt(directory, offset + 24);
+            int nameLength = readShort(directory, offset + 28);
+            int extraLength = readShort(directory, offset + 30);
+            int commentLength = readShort(directory, offset + 32);
+            long localHeaderOffset = readUnsignedInt(directory, offset + 42);
+            if ((flags & 1) != 0 || 
+                (method != STORED && method != DEFLATED) || 
+                compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                return null;
+            }
+
+            byte[] name = copyOf(directory, offset + 46, nameLength);
+            byte[] extra = copyOf(directory, offset + 46 + nameLength, extraLength);
+            byte[] entryComment = copyOf(directory, offset + 46 + nameLength + extraLength, commentLength);
+            Entry entry = new Entry(
+                name,
+                readShort(directory, offset + 4),
+                readShort(directory, offset + 6),
+                flags,
+                method,
+                readInt(directory, offset + 12),
+                readUnsignedInt(directory, offset + 16),
+                compressedSize,
+                size,
+                extra,
+                entryComment,
+                readShort(directory, offset + 36),
+                readUnsignedInt(directory, offset + 38),
+                base + localHeaderOffset
+            );
+            // Entries are found by name, so duplicates can't be told apart
+            if (null != entries.put(decodeName(name, flags), entry)) {
+                return null;
+            }
+            offset += 46 + nameLength + extraLength + commentLength;
+        }
+        return new RawZipFile(file, entries, comment);
+    }
+
+    private static String decodeName(byte[] name, int flags) throws IOException {
+        if ((flags & UTF8_FLAG) != 0) {
+            return new String(name, "UTF-8");
+        }
+        // CP437 is the default encoding of ZIP names, and it's not a standard charset of JRE
+        char[] chars = new char[name.length];
+        for (int i = 0; i < name.length; i++) {
+            int b = name[i] & 0xFF;
+            chars[i] = b < 0x80 ? (char)b : CP437_HIGH.charAt(b - 0x80);
+        }
+        return new String(chars);
+    }
+
+    private static byte[] copyOf(byte[] bytes, int offset, int length) {
+        byte[] result = new byte[length];
+        System.arraycopy(bytes, offset, result, 0, length);
+        return result;
+    }
+
+    private static final String CP437_HIGH = 
+        "\u00C7\u00FC\u00E9\u00E2\u00E4\u00E0\u00E5\u00E7\u00EA\u00EB\u00E8\u00EF\u00EE\u00EC\u00C4\u00C5" +
+        "\u00C9\u00E6\u00C6\u00F4\u00F6\u00F2\u00FB\u00F9\u00FF\u00D6\u00DC\u00A2\u00A3\u00A5\u20A7\u0192" +
+        "\u00E1\u00ED\u00F3\u00FA\u00F1\u00D1\u00AA\u00BA\u00BF\u2310\u00AC\u00BD\u00BC\u00A1\u00AB\u00BB" +
+        "\u2591\u2592\u2593\u2502\u2524\u2561\u2562\u2556\u2555\u2563\u2551\u2557\u255D\u255C\u255B\u2510" +
+        "\u2514\u2534\u252C\u251C\u2500\u253C\u255E\u255F\u255A\u2554\u2569\u2566\u2560\u2550\u256C\u2567" +
+        "\u2568\u2564\u2565\u2559\u2558\u2552\u2553\u256B\u256A\u2518\u250C\u2588\u2584\u258C\u2590\u2580" +
+        "\u03B1\u00DF\u0393\u03C0\u03A3\u03C3\u00B5\u03C4\u03A6\u0398\u03A9\u03B4\u221E\u03C6\u03B5\u2229" +
+        "\u2261\u00B1\u2265\u2264\u2320\u2321\u00F7\u2248\u00B0\u2219\u00B7\u221A\u207F\u00B2\u25A0\u00A0";
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | ((b[offset + 1] & 0xFF) << 8);
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return readShort(b, offset) | (readShort(b, offset + 2) << 16);
+    }
+
+    private static long readUnsignedInt(byte[] b, int offset) {
+        return readInt(b, offset) & 0xFFFFFFFFL;
+    }
+}
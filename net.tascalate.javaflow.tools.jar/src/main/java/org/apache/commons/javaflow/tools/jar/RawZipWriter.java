@@ -0,0 +1,174 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.tools.jar;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import org.apache.commons.javaflow.spi.FastByteArrayOutputStream;
+
+/**
+ * Minimal ZIP writer for entries of {@link RawZipFile}. Unchanged entries are copied 
+ * with their compressed data as is, only the new content is compressed. Entries are
+ * written with sizes in local headers, without data descriptors, and extra fields 
+ * are kept in the central directory only.
+ */
+final class RawZipWriter {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+
+    private final OutputStream out;
+    private final List<RawZipFile.Entry> written = new ArrayList<RawZipFile.Entry>();
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final byte[] buffer = new byte[8192];
+    private long offset;
+
+    RawZipWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    void copyEntry(RawZipFile source, RawZipFile.Entry entry) throws IOException {
+        RawZipFile.Entry copy = relocate(entry, entry.versionNeeded, entry.method, entry.crc, entry.compressedSize, entry.size);
+        writeLocalHeader(copy);
+        source.copyData(entry, out);
+        offset += entry.compressedSize;
+    }
+
+    /**
+     * Writes the new content of the entry with the same compression method.
+     */
+    void writeEntry(RawZipFile.Entry entry, byte[] content) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        byte[] data;
+        int versionNeeded;
+        if (entry.method == RawZipFile.STORED) {
+            data = content;
+            versionNeeded = entry.versionNeeded;
+        } else {
+            deflater.reset();
+            deflater.setInput(content);
+            deflater.finish();
+            FastByteArrayOutputStream deflated = new FastByteArrayOutputStream();
+            while (!deflater.finished()) {
+                deflated.write(buffer, 0, deflater.deflate(buffer));
+            }
+            data = deflated.toByteArray();
+            versionNeeded = Math.max(entry.versionNeeded, 20);
+        }
+        RawZipFile.Entry replacement = relocate(entry, versionNeeded, entry.method, crc.getValue(), data.length, content.length);
+        writeLocalHeader(replacement);
+        out.write(data);
+        offset += data.length;
+    }
+
+    /**
+     * Writes the central directory, the underlying stream is not closed.
+     * 
+     * @param comment the archive comment
+     */
+    void finish(byte[] comment) throws IOException {
+        try {
+            long centralDirectoryOffset = offset;
+            for (RawZipFile.Entry entry : written) {
+                writeInt(CENTRAL_HEADER_SIGNATURE);
+                writeShort(entry.versionMadeBy);
+                writeShort(entry.versionNeeded);
+                writeShort(entry.flags);
+                writeShort(entry.method);
+                writeInt(entry.dosTime);
+                writeInt(entry.crc);
+                writeInt(entry.compressedSize);
+                writeInt(entry.size);
+                writeShort(entry.name.length);
+                writeShort(entry.extra.length);
+                writeShort(entry.comment.length);
+                writeShort(0); // disk number
+                writeShort(entry.internalAttributes);
+                writeInt(entry.externalAttributes);
+                writeInt(entry.localHeaderOffset);
+                writeBytes(entry.name);
+                writeBytes(entry.extra);
+                writeBytes(entry.comment);
+            }
+            long centralDirectorySize = offset - centralDirectoryOffset;
+            if (written.size() > 0xFFFF || offset > 0xFFFFFFFFL) {
+                throw new IOException("ZIP64 archives are not supported");
+            }
+            writeInt(END_SIGNATURE);
+            writeShort(0); // disk number
+            writeShort(0); // disk with central directory
+            writeShort(written.size());
+            writeShort(written.size());
+            writeInt(centralDirectorySize);
+            writeInt(centralDirectoryOffset);
+            writeShort(comment.length);
+            writeBytes(comment);
+            out.flush();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private RawZipFile.Entry relocate(RawZipFile.Entry entry, int versionNeeded, int method, long crc, long compressedSize, long size) throws IOException {
+        if (offset > 0xFFFFFFFFL || compressedSize > 0xFFFFFFFFL || size > 0xFFFFFFFFL) {
+            throw new IOException("ZIP64 archives are not supported");
+        }
+        RawZipFile.Entry result = new RawZipFile.Entry(
+            entry.name, entry.versionMadeBy, versionNeeded, entry.flags & ~DATA_DESCRIPTOR_FLAG, method, entry.dosTime, 
+            crc, compressedSize, size, entry.extra, entry.comment, 
+            entry.internalAttributes, entry.externalAttributes, offset
+        );
+        written.add(result);
+        return result;
+    }
+
+    private void writeLocalHeader(RawZipFile.Entry entry) throws IOException {
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(entry.versionNeeded);
+        writeShort(entry.flags);
+        writeShort(entry.method);
+        writeInt(entry.dosTime);
+        writeInt(entry.crc);
+        writeInt(entry.compressedSize);
+        writeInt(entry.size);
+        writeShort(entry.name.length);
+        writeShort(0); // extra length
+        writeBytes(entry.name);
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        offset += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int)(value & 0xFFFF));
+        writeShort((int)((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        out.write(bytes);
+        offset += bytes.length;
+    }
+}
@@ -7,7 +7,7 @@
  * See the NOTICE file distributed with this work for additional
  * information regarding copyright ownership.
  *
- * Modified work: copyright 2013-2022 Valery Silaev (http://vsilaev.com)
+ * Modified work: copyright 2013-2026 Valery Silaev (http://vsilaev.com)
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -23,20 +23,36 @@
  */
 package org.apache.commons.javaflow.tools.jar;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.jar.JarEntry;
 import java.util.jar.JarInputStream;
 import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,6 +62,7 @@ import org.apache.commons.javaflow.providers.core.ContinuableClassTransformation
 import org.apache.commons.javaflow.spi.AbstractResourceTransformer;
 import org.apache.commons.javaflow.spi.ClasspathResourceLoader;
 import org.apache.commons.javaflow.spi.FastByteArrayOutputStream;
+import org.apache.commons.javaflow.spi.ResourceLoader;
 import org.apache.commons.javaflow.spi.ResourceTransformationFactory;
 
 public final class RewritingUtils {
@@ -72,17 +89,54 @@ public final class RewritingUtils {
         byte[] original = toByteArray(input);
         byte[] transformed = transformer.transform(original);
         if (transformed != original /*Exact equality means not transformed*/ || !output.equals(input)) {
-            FileOutputStream os = new FileOutputStream(output);
+            replaceFile(output, transformed);
+            return true;
+        } else {
+            return false;
+        }
+    }
+    
+    /**
+     * Replaces the file with the complete content written to the temporary file first.
+     * <p>
+     * Other transformers may read the output concurrently as a resource, so it's 
+     * never overwritten in place. The rename is retried several times in case 
+     * the failure is transient. When the platform can't rename over an existing 
+     * file at all (Windows), the output is deleted before the last rename, and 
+     * concurrent readers may briefly miss the file. 
+     * Transforming class files in parallel is unsafe on such platforms whenever 
+     * transformed classes refer to each other.
+     */
+    static void replaceFile(File output, byte[] content) throws IOException {
+        File temp = File.createTempFile(output.getName(), ".tmp", output.getAbsoluteFile().getParentFile());
+        try {
+            FileOutputStream os = new FileOutputStream(temp);
             try {
-                os.write(transformed);
+                os.write(content);
             } finally {
                 os.close();
             }
-            return true;
-        } else {
-            return false;
+            for (int attempt = 1; !temp.renameTo(output); attempt++) {
+                if (attempt >= RENAME_ATTEMPTS) {
+                    if (!output.delete() || !temp.renameTo(output)) {
+                        throw new IOException("Unable to replace " + output);
+                    }
+                    break;
+                }
+                try {
+                    Thread.sleep(RENAME_RETRY_DELAY * attempt);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while replacing " + output);
+                }
+            }
+        } finally {
+            temp.delete();
         }
     }
+    
+    private static final int RENAME_ATTEMPTS = 5;
+    private static final long RENAME_RETRY_DELAY = 10L;
 
     public static boolean rewriteJar(JarInputStream input,
                                      ResourceTransformer transformer,
@@ -155,6 +209,405 @@ public final class RewritingUtils {
         return changed;
     }
 
+    /**
+     * Rewrites the jar file with several threads, each one with its own transformer
+     * created for the resource loader. Class entries are read with {@link ZipFile} 
+     * and transformed ahead of the writer, while entries are written in the original 
+     * order. Unchanged entries are copied without decompression, unless the archive 
+     * is not supported by {@link RawZipFile}, like ZIP64 ones. Nested archives are 
+     * rewritten the same way.
+     * 
+     * @param input the jar file to rewrite
+     * @param output the rewritten jar file
+     * @param resourceLoader the resource loader that includes the input jar
+     * @param factory the factory of transformers
+     * @param threads number of threads that transform classes, by default (0) 
+     *        equals to the number of available processors
+     * @return true if any class was transformed
+     * @throws IOException if jar file can't be read or written
+     */
+    public static boolean rewriteJar(File input,
+                                     File output,
+                                     ResourceLoader resourceLoader,
+                                     ResourceTransformationFactory factory,
+                                     int threads) throws IOException {
+        return rewriteJar(input, output, resourceLoader, factory, MATCH_ALL, threads);
+    }
+
+    public static boolean rewriteJar(File input,
+                                     File output,
+                                     ResourceLoader resourceLoader,
+                                     ResourceTransformationFactory factory,
+                                     Matcher pMatcher,
+                                     int threads) throws IOException {
+        
+        int workers = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ThreadTransformers transformers = new ThreadTransformers(resourceLoader, factory);
+        try {
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+            try {
+                // Enough tasks ahead to keep all threads busy while writer compresses
+                return rewriteJar(input, out, executor, transformers, pMatcher, workers * 4);
+            } finally {
+                out.close();
+            }
+        } finally {
+            executor.shutdownNow();
+            // Tasks submitted ahead may be still running after failure, 
+            // and transformers may not be released while they are in use
+            awaitTermination(executor);
+            transformers.release();
+        }
+    }
+    
+    private static void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    if (executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    private static boolean rewriteJar(File input,
+                                      OutputStream output,
+                                      ExecutorService executor,
+                                      ThreadTransformers transformers,
+                                      Matcher pMatcher,
+                                      int window) throws IOException {
+        
+        ZipFile zip = new ZipFile(input);
+        try {
+            // Unchanged entries are copied compressed when the archive format allows it
+            RawZipFile rawZip = RawZipFile.open(input);
+            try {
+                List<ZipEntry> entries = new ArrayList<ZipEntry>(zip.size());
+                boolean rawEntries = null != rawZip;
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                    ZipEntry entry = e.nextElement();
+                    entries.add(entry);
+                    // ZipFile decodes all names as UTF-8, so non-ASCII names 
+                    // without the UTF-8 flag aren't found among CP437 ones
+                    if (rawEntries && null == rawZip.getEntry(entry.getName())) {
+                        rawEntries = false;
+                    }
+                }
+                ArchiveWriter writer = rawEntries ? 
+                    new RawArchiveWriter(rawZip, output) : new JarArchiveWriter(zip, output);
+                
+                List<Future<TransformedEntry>> transformed = new ArrayList<Future<TransformedEntry>>(
+                    Collections.<Future<TransformedEntry>>nCopies(entries.size(), null)
+                );
+                boolean changed = false;
+                int submitted = 0;
+                for (int i = 0; i < entries.size(); i++) {
+                    for (; submitted < entries.size() && submitted < i + window; submitted++) {
+                        ZipEntry entry = entries.get(submitted);
+                        String name = entry.getName();
+                        if (!entry.isDirectory() && name.endsWith(".class") && pMatcher.isMatching(name)) {
+                            transformed.set(submitted, executor.submit(new TransformEntryTask(zip, entry, transformers)));
+                        }
+                    }
+                    
+                    ZipEntry entry = entries.get(i);
+                    String name = entry.getName();
+                    Future<TransformedEntry> future = transformed.set(i, null);
+                    if (null != future) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("transforming " + name);
+                        }
+                        TransformedEntry result = getResult(future);
+                        if (result.changed) {
+                            writer.write(entry, result.bytes);
+                            changed = true;
+                        } else {
+                            writer.copy(entry);
+                        }
+                    } else if (!entry.isDirectory() && isArchive(name)) {
+                        changed |= rewriteNestedJar(zip, entry, writer, executor, transformers, pMatcher, window);
+                    } else {
+                        writer.copy(entry);
+                        if (log.isDebugEnabled()) {
+                            log.debug("copied " + name + "(" + entry.getSize() + ")");
+                        }
+                    }
+                }
+                writer.finish();
+                return changed;
+            } finally {
+                if (null != rawZip) {
+                    rawZip.close();
+                }
+            }
+        } finally {
+            zip.close();
+        }
+    }
+    
+    private static boolean rewriteNestedJar(ZipFile zip,
+                                            ZipEntry entry,
+                                            ArchiveWriter writer,
+                                            ExecutorService executor,
+                                            ThreadTransformers transformers,
+                                            Matcher pMatcher,
+                                            int window) throws IOException {
+        // ZipFile requires a file, so nested archive is extracted first
+        File nestedInput = File.createTempFile("javaflow-nested", ".jar");
+        File nestedOutput = File.createTempFile("javaflow-nested", ".jar");
+        try {
+            InputStream in = zip.getInputStream(entry);
+            try {
+                OutputStream out = new FileOutputStream(nestedInput);
+                try {
+                    copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            
+            boolean changed;
+            OutputStream nestedJar = new BufferedOutputStream(new FileOutputStream(nestedOutput));
+            try {
+                changed = rewriteJar(nestedInput, nestedJar, executor, transformers, pMatcher, window);
+            } finally {
+                nestedJar.close();
+            }
+            
+            if (changed) {
+                writer.write(entry, toByteArray(nestedOutput));
+            } else {
+                writer.copy(entry);
+            }
+            return changed;
+        } finally {
+            nestedInput.delete();
+            nestedOutput.delete();
+        }
+    }
+    
+    private static boolean isArchive(String name) {
+        return name.endsWith(".jar") || 
+               name.endsWith(".ear") || 
+               name.endsWith(".zip") || 
+               name.endsWith(".war");
+    }
+    
+    private static <T> T getResult(Future<T> future) throws IOException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException)cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error)cause;
+                    } else {
+                        throw new RuntimeException(cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Destination of the rewritten archive, entries are written in the original order
+     */
+    static abstract class ArchiveWriter {
+        abstract void copy(ZipEntry entry) throws IOException;
+        
+        abstract void write(ZipEntry entry, byte[] content) throws IOException;
+        
+        abstract void finish() throws IOException;
+    }
+    
+    /**
+     * Copies compressed data of unchanged entries as is, so only rewritten 
+     * entries are compressed again
+     */
+    static class RawArchiveWriter extends ArchiveWriter {
+        private final RawZipFile zip;
+        private final RawZipWriter output;
+        
+        RawArchiveWriter(RawZipFile zip, OutputStream output) {
+            this.zip = zip;
+            this.output = new RawZipWriter(output);
+        }
+        
+        void copy(ZipEntry entry) throws IOException {
+            output.copyEntry(zip, getEntry(entry));
+        }
+        
+        void write(ZipEntry entry, byte[] content) throws IOException {
+            output.writeEntry(getEntry(entry), content);
+        }
+        
+        void finish() throws IOException {
+            output.finish(zip.getComment());
+        }
+        
+        private RawZipFile.Entry getEntry(ZipEntry entry) throws IOException {
+            RawZipFile.Entry result = zip.getEntry(entry.getName());
+            if (null == result) {
+                throw new IOException("Entry " + entry.getName() + " is not found in the central directory");
+            }
+            return result;
+        }
+    }
+    
+    /**
+     * Decompresses and compresses all entries again, used for archives 
+     * that are not supported by {@link RawZipFile}. Only the first of entries 
+     * with the same name is written, with the content {@link ZipFile} reads 
+     * for this name.
+     */
+    static class JarArchiveWriter extends ArchiveWriter {
+        private final ZipFile zip;
+        private final JarOutputStream output;
+        private final Set<String> written = new HashSet<String>();
+        
+        JarArchiveWriter(ZipFile zip, OutputStream output) throws IOException {
+            this.zip = zip;
+            this.output = new JarOutputStream(output);
+        }
+        
+        void copy(ZipEntry entry) throws IOException {
+            if (isDuplicate(entry)) {
+                return;
+            }
+            if (entry.isDirectory()) {
+                output.putNextEntry(new JarEntry(entry));
+                return;
+            }
+            output.putNextEntry(newEntry(entry));
+            InputStream in = zip.getInputStream(entry);
+            try {
+                RewritingUtils.copy(in, output);
+            } finally {
+                in.close();
+            }
+        }
+        
+        void write(ZipEntry entry, byte[] content) throws IOException {
+            if (isDuplicate(entry)) {
+                return;
+            }
+            output.putNextEntry(newEntry(entry));
+            output.write(content);
+        }
+        
+        void finish() throws IOException {
+            output.finish();
+        }
+        
+        private boolean isDuplicate(ZipEntry entry) {
+            if (written.add(entry.getName())) {
+                return false;
+            }
+            log.warn("Skipping duplicate entry " + entry.getName());
+            return true;
+        }
+        
+        private static JarEntry newEntry(ZipEntry entry) {
+            JarEntry result = new JarEntry(entry.getName());
+            result.setTime(entry.getTime());
+            return result;
+        }
+    }
+    
+    static class TransformedEntry {
+        final byte[] bytes;
+        final boolean changed;
+        
+        TransformedEntry(byte[] bytes, boolean changed) {
+            this.bytes = bytes;
+            this.changed = changed;
+        }
+    }
+    
+    static class TransformEntryTask implements Callable<TransformedEntry> {
+        private final ZipFile zip;
+        private final ZipEntry entry;
+        private final ThreadTransformers transformers;
+        
+        TransformEntryTask(ZipFile zip, ZipEntry entry, ThreadTransformers transformers) {
+            this.zip = zip;
+            this.entry = entry;
+            this.transformers = transformers;
+        }
+        
+        public TransformedEntry call() throws IOException {
+            byte[] original;
+            InputStream in = zip.getInputStream(entry);
+            try {
+                original = toByteArray(in);
+            } finally {
+                in.close();
+            }
+            byte[] transformed = transformers.get().transform(original);
+            return new TransformedEntry(transformed, transformed != original);
+        }
+    }
+    
+    /**
+     * Transformers of the resource loader, one per thread
+     */
+    static class ThreadTransformers {
+        private final ResourceLoader resourceLoader;
+        private final ResourceTransformationFactory factory;
+        private final ThreadLocal<ResourceTransformer> current = new ThreadLocal<ResourceTransformer>();
+        private final List<ResourceTransformer> created = new ArrayList<ResourceTransformer>();
+        
+        ThreadTransformers(ResourceLoader resourceLoader, ResourceTransformationFactory factory) {
+            this.resourceLoader = resourceLoader;
+            this.factory = factory;
+        }
+        
+        ResourceTransformer get() {
+            ResourceTransformer transformer = current.get();
+            if (null == transformer) {
+                transformer = createTransformer(resourceLoader, factory);
+                current.set(transformer);
+                synchronized (created) {
+                    created.add(transformer);
+                }
+            }
+            return transformer;
+        }
+        
+        void release() {
+            synchronized (created) {
+                for (ResourceTransformer transformer : created) {
+                    transformer.release();
+                }
+                created.clear();
+            }
+        }
+    }
+
     public static byte[] toByteArray(File f) throws IOException {
         InputStream in = new FileInputStream(f);
         try {
@@ -193,16 +646,14 @@ public final class RewritingUtils {
         for (int i=0; i<args.length; i+=2) {
             System.out.println("rewriting " + args[i]);
             
-            ResourceTransformer transformer = createTransformer(new URL[]{new File(args[i]).toURI().toURL()}, factory);
-            try {
-                RewritingUtils.rewriteJar(
-                    new JarInputStream(new FileInputStream(args[i])),
-                    transformer,
-                    new JarOutputStream(new FileOutputStream(args[i+1]))
-                );
-            } finally {
-                transformer.release();
-            }
+            File input = new File(args[i]);
+            RewritingUtils.rewriteJar(
+                input,
+                new File(args[i+1]),
+                createResourceLoader(new URL[]{input.toURI().toURL()}),
+                factory,
+                0
+            );
         }
 
         System.out.println("done");
@@ -214,17 +665,22 @@ public final class RewritingUtils {
     }
 
     public static ResourceTransformer createTransformer(URL[] extraURL, ResourceTransformationFactory factory) {
-        final URLClassLoader classLoader = new URLClassLoader(extraURL, safeParentClassLoader());
-        
-        final ResourceTransformer transformerDelegate = factory.createTransformer(
-            new ClasspathResourceLoader(classLoader)
-        );
+        return createTransformer(createResourceLoader(extraURL), factory);
+    }
+    
+    /**
+     * Creates a transformer for the resource loader created by {@link #createResourceLoader(URL[])}.
+     * Transformers of the same resource loader share resolved classes, so several transformers 
+     * may be used concurrently, one per thread.
+     */
+    public static ResourceTransformer createTransformer(final ResourceLoader resourceLoader, ResourceTransformationFactory factory) {
+        final ResourceTransformer transformerDelegate = factory.createTransformer(resourceLoader);
         
         return new AbstractResourceTransformer() {
             // Need a hard-reference from transformer
             // Otherwise during builds this class loader is evicted!!!
             @SuppressWarnings("unused")
-            private final Object hardReference = classLoader;
+            private final Object hardReference = resourceLoader;
             
             public byte[] transform(byte[] original, Collection<String> retransformClasses) {
                 byte[] transformed = transformerDelegate.transform(original, retransformClasses);
@@ -237,6 +693,15 @@ public final class RewritingUtils {
         };
     }
     
+    public static ResourceLoader createResourceLoader(URL[] extraURL) {
+        final URLClassLoader classLoader = new URLClassLoader(extraURL, safeParentClassLoader());
+        return new ClasspathResourceLoader(classLoader) {
+            // ClasspathResourceLoader keeps only weak reference to the class loader
+            @SuppressWarnings("unused")
+            private final Object hardReference = classLoader;
+        };
+    }
+    
     private static ClassLoader safeParentClassLoader() {
         ClassLoader ownClassLoader = RewritingUtils.class.getClassLoader();
         return null == ownClassLoader ? ClassLoader.getSystemClassLoader() : ownClassLoader;
@@ -0,0 +1,317 @@
+/**
+ * ﻿Copyright 2013-2026 Valery Silaev (http://vsilaev.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.commons.javaflow.tools.jar;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RawZipFileTest {
+    
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storedAndDeflatedEntriesAreCopied() throws IOException {
+        File input = folder.newFile("input.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(input));
+        try {
+            out.setComment("archive comment");
+            putStored(out, "stored.txt", bytes("stored content"));
+            ZipEntry entry = new ZipEntry("dir/deflated.txt");
+            entry.setComment("entry comment");
+            out.putNextEntry(entry);
+            out.write(bytes("deflated content deflated content"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        
+        File output = rewrite(input);
+        assertEquals(contentOf(input), contentOf(output));
+        RawZipFile zip = RawZipFile.open(output);
+        try {
+            assertEquals(RawZipFile.STORED, zip.getEntry("stored.txt").method);
+            assertEquals(RawZipFile.DEFLATED, zip.getEntry("dir/deflated.txt").method);
+            assertArrayEquals(bytes("entry comment"), zip.getEntry("dir/deflated.txt").comment);
+            assertArrayEquals(bytes("archive comment"), zip.getComment());
+        } finally {
+            zip.close();
+        }
+    }
+    
+    @Test
+    public void dataDescriptorsAreReplacedWithSizesInLocalHeaders() throws IOException {
+        File input = folder.newFile("input.zip");
+        Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+        content.put("a.txt", bytes("first entry"));
+        content.put("b.txt", bytes("second entry"));
+        writeDeflated(input, content);
+        RawZipFile zip = RawZipFile.open(input);
+        try {
+            assertTrue((zip.getEntry("a.txt").flags & 0x08) != 0);
+        } finally {
+            zip.close();
+        }
+        
+        File output = rewrite(input);
+        zip = RawZipFile.open(output);
+        try {
+            assertEquals(0, zip.getEntry("a.txt").flags & 0x08);
+            assertEquals(0, zip.getEntry("b.txt").flags & 0x08);
+        } finally {
+            zip.close();
+        }
+        // Streaming reader relies on local headers only
+        assertEquals(content.keySet(), streamContentOf(output).keySet());
+        assertArrayEquals(content.get("b.txt"), streamContentOf(output).get("b.txt"));
+        assertEquals(contentOf(input), contentOf(output));
+    }
+    
+    @Test
+    public void entriesAfterPrependedStubAreCopied() throws IOException {
+        File archive = folder.newFile("archive.zip");
+        Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+        content.put("a.txt", bytes("first entry"));
+        content.put("b.txt", bytes("second entry"));
+        writeDeflated(archive, content);
+        
+        File input = folder.newFile("input.zip");
+        OutputStream out = new FileOutputStream(input);
+        try {
+            out.write(bytes("#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n"));
+            out.write(RewritingUtils.toByteArray(archive));
+        } finally {
+            out.close();
+        }
+        RawZipFile zip = RawZipFile.open(input);
+        assertNotNull(zip);
+        zip.close();
+        
+        File output = rewrite(input);
+        assertEquals(contentOf(archive), contentOf(output));
+    }
+    
+    @Test
+    public void duplicateNamesAreNotCopiedRaw() throws IOException {
+        File input = folder.newFile("input.zip");
+        Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+        content.put("dup-1.txt", bytes("first copy"));
+        content.put("dup-2.txt", bytes("second copy"));
+        content.put("other.txt", bytes("other"));
+        writeDeflated(input, content);
+        // Names of the same length, so only bytes of names are patched
+        byte[] bytes = RewritingUtils.toByteArray(input);
+        replace(bytes, bytes("dup-2.txt"), bytes("dup-1.txt"));
+        OutputStream out = new FileOutputStream(input);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        assertNull(RawZipFile.open(input));
+        
+        File output = rewrite(input);
+        Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+        ZipFile zip = new ZipFile(input);
+        try {
+            expected.put("dup-1.txt", RewritingUtils.toByteArray(zip.getInputStream(zip.getEntry("dup-1.txt"))));
+        } finally {
+            zip.close();
+        }
+        expected.put("other.txt", bytes("other"));
+        assertEquals(asStrings(expected), contentOf(output));
+    }
+    
+    @Test
+    public void namesAreDecodedByUtf8Flag() throws IOException {
+        File input = folder.newFile("input.zip");
+        Map<String, byte[]> content = new LinkedHashMap<String, byte[]>();
+        content.put("dir/\u00DC.txt", bytes("unicode"));
+        writeDeflated(input, content);
+        RawZipFile zip = RawZipFile.open(input);
+        try {
+            assertNotNull(zip.getEntry("dir/\u00DC.txt"));
+        } finally {
+            zip.close();
+        }
+        
+        // The same bytes of name without the flag are CP437
+        byte[] bytes = RewritingUtils.toByteArray(input);
+        clearUtf8Flags(bytes);
+        OutputStream out = new FileOutputStream(input);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        zip = RawZipFile.open(input);
+        try {
+            assertNull(zip.getEntry("dir/\u00DC.txt"));
+            assertNotNull(zip.getEntry("dir/\u251C\u00A3.txt"));
+        } finally {
+            zip.close();
+        }
+    }
+    
+    private File rewrite(File input) throws IOException {
+        File output = new File(folder.getRoot(), "output-" + input.getName());
+        boolean changed = RewritingUtils.rewriteJar(
+            input, output, 
+            RewritingUtils.createResourceLoader(new URL[0]), 
+            RewritingUtils.createTransformerFactoryInstance(), 
+            1
+        );
+        assertFalse(changed);
+        return output;
+    }
+    
+    private static void putStored(ZipOutputStream out, String name, byte[] content) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCompressedSize(content.length);
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+    
+    // ZipOutputStream writes deflated entries with data descriptors
+    private static void writeDeflated(File file, Map<String, byte[]> content) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (Map.Entry<String, byte[]> e : content.entrySet()) {
+                out.putNextEntry(new ZipEntry(e.getKey()));
+                out.write(e.getValue());
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+    
+    private static Map<String, String> contentOf(File file) throws IOException {
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        ZipFile zip = new ZipFile(file);
+        try {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); ) {
+                ZipEntry entry = e.nextElement();
+                result.put(entry.getName(), RewritingUtils.toByteArray(zip.getInputStream(entry)));
+            }
+        } finally {
+            zip.close();
+        }
+        return asStrings(result);
+    }
+    
+    private static Map<String, byte[]> streamContentOf(File file) throws IOException {
+        Map<String, byte[]> result = new LinkedHashMap<String, byte[]>();
+        ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+        try {
+            ZipEntry entry;
+            while (null != (entry = in.getNextEntry())) {
+                result.put(entry.getName(), readAll(in));
+            }
+        } finally {
+            in.close();
+        }
+        return result;
+    }
+    
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+    
+    private static Map<String, String> asStrings(Map<String, byte[]> content) throws IOException {
+        Map<String, String> result = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, byte[]> e : content.entrySet()) {
+            result.put(e.getKey(), new String(e.getValue(), "UTF-8"));
+        }
+        return result;
+    }
+    
+    private static void replace(byte[] bytes, byte[] from, byte[] to) {
+        List<Integer> found = new ArrayList<Integer>();
+        for (int i = 0; i + from.length <= bytes.length; i++) {
+            boolean matches = true;
+            for (int j = 0; j < from.length && matches; j++) {
+                matches = bytes[i + j] == from[j];
+            }
+            if (matches) {
+                found.add(i);
+            }
+        }
+        assertEquals("Local and central headers", 2, found.size());
+        for (int i : found) {
+            System.arraycopy(to, 0, bytes, i, to.length);
+        }
+    }
+    
+    private static void clearUtf8Flags(byte[] bytes) {
+        for (int i = 0; i + 4 <= bytes.length; i++) {
+            if (bytes[i] == 'P' && bytes[i + 1] == 'K') {
+                int offset = -1;
+                if (bytes[i + 2] == 3 && bytes[i + 3] == 4) {
+                    offset = i + 7; // high byte of local header flags
+                } else if (bytes[i + 2] == 1 && bytes[i + 3] == 2) {
+                    offset = i + 9; // high byte of central header flags
+                }
+                if (offset >= 0) {
+                    bytes[offset] &= ~0x08;
+                }
+            }
+        }
+    }
+    
+    private static byte[] bytes(String value) throws IOException {
+        return value.getBytes("UTF-8");
+    }
+}
@@ -24,6 +24,12 @@ import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecution;
@@ -37,7 +43,10 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 
 import org.apache.commons.javaflow.spi.RecursiveFilesIterator;
+import org.apache.commons.javaflow.spi.ResourceLoader;
+import org.apache.commons.javaflow.spi.ResourceTransformationFactory;
 import org.apache.commons.javaflow.spi.ResourceTransformer;
+import org.apache.commons.javaflow.tools.jar.InstrumentationManifest;
 import org.apache.commons.javaflow.tools.jar.RewritingUtils;
 
 /**
@@ -53,6 +62,8 @@ import org.apache.commons.javaflow.tools.jar.RewritingUtils;
  *       &lt;includeTestClasses&gt;false&lt;/includeTestClasses&gt;
  *       &lt;buildDir&gt;bin/classes&lt;/buildDir&gt;
  *       &lt;testBuildDir&gt;bin/test-classes&lt;/testBuildDir&gt;
+ *       &lt;threads&gt;4&lt;/threads&gt;
+ *       &lt;incremental&gt;true&lt;/incremental&gt;
  *   &lt;/configuration&gt;
  * </pre>
  * 
@@ -92,6 +103,22 @@ public class ContinuableClassesInstrumentationMojo extends AbstractMojo {
     @Parameter(property = "javaflow.enhancer.testBuildDir", required = false)
     private String testBuildDir;
 
+    /**
+     * Number of threads that transform class files concurrently. By default (0) equals
+     * to the number of available processors. On platforms that can't rename a file over 
+     * an existing one (Windows) class files are briefly missing while being replaced, 
+     * so use 1 there when instrumented classes depend on each other.
+     */
+    @Parameter(defaultValue = "0", property = "javaflow.enhancer.threads", required = false)
+    private int threads;
+
+    /**
+     * Whether or not to skip class files that are not changed since the previous build. 
+     * Digests of the instrumented class files are kept in the project build directory.
+     */
+    @Parameter(defaultValue = "true", property = "javaflow.enhancer.incremental", required = false)
+    private boolean incremental;
+
     @Component
     private MojoExecution execution;
     
@@ -142,24 +169,141 @@ public class ContinuableClassesInstrumentationMojo extends AbstractMojo {
         }
         classPath.add(resolveUrl(inputDirectory));
 
-        ResourceTransformer dirTransformer = RewritingUtils.createTransformer(
-            classPath.toArray(new URL[] {})
-        );
+        long now = System.currentTimeMillis();
+        List<File> sources = new ArrayList<File>();
+        for (File source : RecursiveFilesIterator.scanClassFiles(inputDirectory)) {
+            if (source.lastModified() <= now) {
+                sources.add(source);
+            }
+        }
+        if (sources.isEmpty()) {
+            return;
+        }
+
+        URL[] classPathUrls = classPath.toArray(new URL[] {});
+        ResourceTransformationFactory factory = RewritingUtils.createTransformerFactoryInstance();
+        
+        long started = System.nanoTime();
+        InstrumentationManifest manifest = null;
+        List<File> selected = sources;
+        if (incremental) {
+            File manifestFile = new File(new File(project.getBuild().getDirectory(), "javaflow"), 
+                                         inputDirectory.getName() + ".digests");
+            manifest = InstrumentationManifest.load(manifestFile, inputDirectory, inputDirectory, factory, classPathUrls);
+            selected = manifest.selectClassFiles(sources);
+        }
         
+        int workers = Math.min(threads > 0 ? threads : Runtime.getRuntime().availableProcessors(), selected.size());
+        int rewritten = 0;
+        if (workers == 1) {
+            // All transformers share resolved classes of this resource loader
+            ResourceLoader resourceLoader = RewritingUtils.createResourceLoader(classPathUrls);
+            rewritten = new TransformFilesTask(selected, new AtomicInteger(), resourceLoader, factory, manifest).call();
+        } else if (workers > 1) {
+            ResourceLoader resourceLoader = RewritingUtils.createResourceLoader(classPathUrls);
+            AtomicInteger cursor = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(workers);
+            try {
+                List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+                for (int i = 0; i < workers; i++) {
+                    results.add(executor.submit(new TransformFilesTask(selected, cursor, resourceLoader, factory, manifest)));
+                }
+                for (Future<Integer> result : results) {
+                    rewritten += getResult(result);
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        if (null != manifest) {
+            manifest.save();
+        }
+        long elapsed = Math.max((System.nanoTime() - started) / 1000000L, 1L);
+        log.info(String.format(
+            "Processed %d class files of %s in %d ms (%d rewritten, %d up to date), %.1f files/sec, %d thread(s)",
+            selected.size(), inputDirectory, elapsed, rewritten, sources.size() - selected.size(), 
+            selected.size() * 1000.0 / elapsed, Math.max(workers, 1)
+        ));
+    }
+    
+    private static int getResult(Future<Integer> result) throws IOException {
+        boolean interrupted = false;
         try {
-            long now = System.currentTimeMillis();
-
-            for (File source : RecursiveFilesIterator.scanClassFiles(inputDirectory)) {
-                if (source.lastModified() <= now) {
+            while (true) {
+                try {
+                    return result.get().intValue();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                } catch (ExecutionException ex) {
+                    Throwable cause = ex.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException)cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException)cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error)cause;
+                    } else {
+                        throw new RuntimeException(cause);
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Transforms files taken from the shared list with its own transformer
+     * until the list is exhausted
+     */
+    private class TransformFilesTask implements Callable<Integer> {
+        private final List<File> sources;
+        private final AtomicInteger cursor;
+        private final ResourceLoader resourceLoader;
+        private final ResourceTransformationFactory factory;
+        private final InstrumentationManifest manifest;
+        
+        TransformFilesTask(List<File> sources, 
+                           AtomicInteger cursor, 
+                           ResourceLoader resourceLoader, 
+                           ResourceTransformationFactory factory,
+                           InstrumentationManifest manifest) {
+            this.sources = sources;
+            this.cursor = cursor;
+            this.resourceLoader = resourceLoader;
+            this.factory = factory;
+            this.manifest = manifest;
+        }
+        
+        public Integer call() throws IOException {
+            Log log = getLog();
+            ResourceTransformer dirTransformer = RewritingUtils.createTransformer(resourceLoader, factory);
+            int rewrittenCount = 0;
+            boolean completed = false;
+            try {
+                int idx;
+                while ((idx = cursor.getAndIncrement()) < sources.size()) {
+                    File source = sources.get(idx);
                     log.debug("Applying continuations support: " + source);
-                    boolean rewritten = RewritingUtils.rewriteClassFile(source, dirTransformer, source);
+                    boolean rewritten = null == manifest ?
+                        RewritingUtils.rewriteClassFile(source, dirTransformer, source) :
+                        manifest.rewriteClassFile(source, dirTransformer);
                     if (rewritten) {
                         log.info("Rewritten continuation-enabled class file: " + source);
+                        rewrittenCount++;
                     }
                 }
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // Stop other tasks on error
+                    cursor.set(sources.size());
+                }
+                dirTransformer.release();
             }
-        } finally {
-            dirTransformer.release();
+            return rewrittenCount;
         }
     }
 
@@ -196,4 +340,12 @@ public class ContinuableClassesInstrumentationMojo extends AbstractMojo {
         return testBuildDir;
     }
 
+    public int getThreads() {
+        return threads;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
 }
\ No newline at end of file